@@ -6,8 +6,14 @@ public class Version {
     public static final short V1_0_0_ID = 10000;
     public static final Version V1_0_0 = new Version(V1_0_0_ID);
 
-    public static final Version CURRENT = V1_0_0;
-    public static final short CURRENT_ID = V1_0_0_ID;
+    /**
+     * Message frame body starts with compression codec header.
+     */
+    public static final short V1_1_0_ID = 10100;
+    public static final Version V1_1_0 = new Version(V1_1_0_ID);
+
+    public static final Version CURRENT = V1_1_0;
+    public static final short CURRENT_ID = V1_1_0_ID;
 
     public final short id;
 
@@ -17,13 +23,26 @@ public class Version {
 
     public static Version fromId(short id) throws IOException {
         switch (id) {
-            case CURRENT_ID:
+            case V1_0_0_ID:
                 return V1_0_0;
+            case V1_1_0_ID:
+                return V1_1_0;
             default:
                 throw new IOException("Unexpected id[" + id + "]");
         }
     }
 
+    public boolean onOrAfter(Version version) {
+        return id >= version.id;
+    }
+
+    /**
+     * @return lower of versions, used as version of communication with peer
+     */
+    public static Version min(Version version1, Version version2) {
+        return version1.id <= version2.id ? version1 : version2;
+    }
+
     @Override
     public String toString() {
         return "Version{" + id + '}';
@@ -14,6 +14,7 @@ import java.util.Random;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 
@@ -73,7 +74,10 @@ public class BenchmarkService extends AbstractComponent {
         long request = requestId.incrementAndGet();
         CompletableFuture<BenchmarkResponse> future = new CompletableFuture<>();
         requests.put(request, future);
-        raft.apply(new ClientMessage(discovery.self(), new BenchmarkRequest(request, data)));
+        if (!raft.apply(new ClientMessage(discovery.self(), new BenchmarkRequest(request, data)))) {
+            requests.remove(request);
+            future.completeExceptionally(new RejectedExecutionException("raft event queue is full"));
+        }
         return future;
     }
 
@@ -24,5 +24,7 @@ public class BlobModule extends AbstractModule {
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(PutBlobResourceResponse.class, PutBlobResourceResponse::new, 503));
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(GetBlobResourceRequest.class, GetBlobResourceRequest::new, 504));
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(GetBlobResourceResponse.class, GetBlobResourceResponse::new, 505));
+        streamableBinder.addBinding().toInstance(StreamableRegistry.of(GetBlobResourceRoute.class, GetBlobResourceRoute::new, 506));
+        streamableBinder.addBinding().toInstance(StreamableRegistry.of(BlobResourceRoute.class, BlobResourceRoute::new, 507));
     }
 }
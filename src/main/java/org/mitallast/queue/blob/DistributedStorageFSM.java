@@ -1,9 +1,12 @@
 package org.mitallast.queue.blob;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 import com.typesafe.config.Config;
+import org.mitallast.queue.blob.protocol.BlobResourceRoute;
 import org.mitallast.queue.blob.protocol.BlobRoutingMap;
+import org.mitallast.queue.blob.protocol.GetBlobResourceRoute;
 import org.mitallast.queue.blob.protocol.PutBlobResource;
 import org.mitallast.queue.blob.protocol.PutBlobResourceResponse;
 import org.mitallast.queue.common.component.AbstractComponent;
@@ -11,6 +14,7 @@ import org.mitallast.queue.common.stream.Streamable;
 import org.mitallast.queue.raft.ResourceFSM;
 import org.mitallast.queue.raft.protocol.RaftSnapshot;
 import org.mitallast.queue.raft.protocol.RaftSnapshotMetadata;
+import org.mitallast.queue.transport.DiscoveryNode;
 
 import java.util.Optional;
 
@@ -38,6 +42,10 @@ public class DistributedStorageFSM extends AbstractComponent implements Resource
                 resource.getKey(),
                 true
             );
+        } else if (message instanceof GetBlobResourceRoute) {
+            GetBlobResourceRoute route = (GetBlobResourceRoute) message;
+            ImmutableSet<DiscoveryNode> nodes = routingMap.getRoutingMap().getOrDefault(route.getKey(), ImmutableSet.of());
+            return new BlobResourceRoute(route.getId(), route.getKey(), nodes);
         } else if (message instanceof BlobRoutingMap) {
             logger.info("install routing map: {}", routingMap);
             routingMap = (BlobRoutingMap) message;
@@ -1,6 +1,5 @@
 package org.mitallast.queue.blob;
 
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 import com.typesafe.config.Config;
@@ -9,6 +8,7 @@ import org.mitallast.queue.common.component.AbstractComponent;
 import org.mitallast.queue.raft.Raft;
 import org.mitallast.queue.raft.discovery.ClusterDiscovery;
 import org.mitallast.queue.raft.protocol.ClientMessage;
+import org.mitallast.queue.raft.protocol.ClientReadMessage;
 import org.mitallast.queue.transport.DiscoveryNode;
 import org.mitallast.queue.transport.TransportController;
 import org.mitallast.queue.transport.TransportService;
@@ -32,7 +32,6 @@ public class DistributedStorageService extends AbstractComponent {
     private final TransportService transportService;
     private final BlobStorageService blobStorageService;
     private final Raft raft;
-    private final DistributedStorageFSM fsm;
     private final int QoS;
     private final ConcurrentMap<Long, CompletableFuture> requests = new ConcurrentHashMap<>();
     private final AtomicLong requestId = new AtomicLong();
@@ -44,21 +43,20 @@ public class DistributedStorageService extends AbstractComponent {
         ClusterDiscovery discovery,
         TransportService transportService,
         BlobStorageService blobStorageService,
-        Raft raft,
-        DistributedStorageFSM fsm
+        Raft raft
     ) {
         super(config.getConfig("blob"), DistributedStorageService.class);
         this.discovery = discovery;
         this.transportService = transportService;
         this.blobStorageService = blobStorageService;
         this.raft = raft;
-        this.fsm = fsm;
         this.QoS = this.config.getInt("QoS");
 
         transportController.<PutBlobResourceRequest>registerMessageHandler(PutBlobResourceRequest.class, this::handle);
         transportController.<PutBlobResourceResponse>registerMessageHandler(PutBlobResourceResponse.class, this::handle);
         transportController.<GetBlobResourceRequest>registerMessageHandler(GetBlobResourceRequest.class, this::handle);
         transportController.<GetBlobResourceResponse>registerMessageHandler(GetBlobResourceResponse.class, this::handle);
+        transportController.<BlobResourceRoute>registerMessageHandler(BlobResourceRoute.class, this::handle);
     }
 
     public CompletableFuture<Boolean> putResource(String key, byte[] data) {
@@ -106,29 +104,43 @@ public class DistributedStorageService extends AbstractComponent {
         return future;
     }
 
+    /**
+     * Resource route is read from routing map by raft read, so resource put before is always found,
+     * and then resource is requested from one of nodes storing it.
+     */
     public CompletableFuture<GetBlobResourceResponse> getResource(String key) {
         logger.info("get resource {}", key);
         CompletableFuture<GetBlobResourceResponse> future = new CompletableFuture<>();
-        ImmutableMap<String, ImmutableSet<DiscoveryNode>> routingMap = fsm.getRoutingMap().getRoutingMap();
-        if (routingMap.containsKey(key)) {
-            ImmutableSet<DiscoveryNode> nodes = routingMap.get(key);
-
-            long id = requestId.incrementAndGet();
-            requests.put(id, future);
+        long id = requestId.incrementAndGet();
+        requests.put(id, future);
+        if (!raft.apply(new ClientReadMessage(discovery.self(), new GetBlobResourceRoute(id, key)))) {
+            requests.remove(id);
+            future.completeExceptionally(new RuntimeException("raft rejected read request"));
+        }
+        return future;
+    }
 
-            DiscoveryNode node = nodes.asList().get((int) (id % nodes.size()));
+    @SuppressWarnings("unchecked")
+    private void handle(BlobResourceRoute message) {
+        CompletableFuture completableFuture = requests.get(message.getId());
+        if (completableFuture == null) {
+            return;
+        }
+        ImmutableSet<DiscoveryNode> nodes = message.getNodes();
+        if (nodes.isEmpty()) {
+            requests.remove(message.getId());
+            completableFuture.completeExceptionally(new RuntimeException("resource not found"));
+            return;
+        }
+        DiscoveryNode node = nodes.asList().get((int) (message.getId() % nodes.size()));
 
-            logger.info("get resource {} id {} node {}", key, id, node);
-            try {
-                transportService.connectToNode(node);
-                transportService.channel(node).message(new GetBlobResourceRequest(node, id, key));
-            } catch (IOException e) {
-                logger.error("error send message to {}", node);
-            }
-        } else {
-            future.completeExceptionally(new RuntimeException("resource not found"));
+        logger.info("get resource {} id {} node {}", message.getKey(), message.getId(), node);
+        try {
+            transportService.connectToNode(node);
+            transportService.channel(node).message(new GetBlobResourceRequest(discovery.self(), message.getId(), message.getKey()));
+        } catch (IOException e) {
+            logger.error("error send message to {}", node);
         }
-        return future;
     }
 
     private void handle(GetBlobResourceRequest message) {
@@ -174,17 +186,19 @@ public class DistributedStorageService extends AbstractComponent {
                 message.getId(),
                 message.getKey()
             );
-            raft.apply(new ClientMessage(message.getNode(), cmd));
-        } else {
-            try {
-                transportService.connectToNode(message.getNode());
-                transportService.channel(message.getNode()).message(new PutBlobResourceResponse(
-                    message.getId(), message.getKey(),
-                    false
-                ));
-            } catch (IOException e) {
-                logger.error("error send message to {}: ", message.getNode());
+            if (raft.apply(new ClientMessage(message.getNode(), cmd))) {
+                return;
             }
+            logger.warn("raft rejected put request: {}", message.getId());
+        }
+        try {
+            transportService.connectToNode(message.getNode());
+            transportService.channel(message.getNode()).message(new PutBlobResourceResponse(
+                message.getId(), message.getKey(),
+                false
+            ));
+        } catch (IOException e) {
+            logger.error("error send message to {}: ", message.getNode());
         }
     }
 
@@ -0,0 +1,49 @@
+package org.mitallast.queue.blob.protocol;
+
+import com.google.common.collect.ImmutableSet;
+import org.mitallast.queue.common.stream.StreamInput;
+import org.mitallast.queue.common.stream.StreamOutput;
+import org.mitallast.queue.common.stream.Streamable;
+import org.mitallast.queue.transport.DiscoveryNode;
+
+import java.io.IOException;
+
+/**
+ * Nodes storing resource, empty if resource is not found.
+ */
+public class BlobResourceRoute implements Streamable {
+    private final long id;
+    private final String key;
+    private final ImmutableSet<DiscoveryNode> nodes;
+
+    public BlobResourceRoute(long id, String key, ImmutableSet<DiscoveryNode> nodes) {
+        this.id = id;
+        this.key = key;
+        this.nodes = nodes;
+    }
+
+    public BlobResourceRoute(StreamInput stream) throws IOException {
+        id = stream.readLong();
+        key = stream.readText();
+        nodes = stream.readStreamableSet(DiscoveryNode::new);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public ImmutableSet<DiscoveryNode> getNodes() {
+        return nodes;
+    }
+
+    @Override
+    public void writeTo(StreamOutput stream) throws IOException {
+        stream.writeLong(id);
+        stream.writeText(key);
+        stream.writeStreamableSet(nodes);
+    }
+}
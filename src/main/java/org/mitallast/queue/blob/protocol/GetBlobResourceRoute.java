@@ -0,0 +1,39 @@
+package org.mitallast.queue.blob.protocol;
+
+import org.mitallast.queue.common.stream.StreamInput;
+import org.mitallast.queue.common.stream.StreamOutput;
+import org.mitallast.queue.common.stream.Streamable;
+
+import java.io.IOException;
+
+/**
+ * Read command of routing map, applied to FSM as {@link org.mitallast.queue.raft.protocol.ClientReadMessage}.
+ */
+public class GetBlobResourceRoute implements Streamable {
+    private final long id;
+    private final String key;
+
+    public GetBlobResourceRoute(long id, String key) {
+        this.id = id;
+        this.key = key;
+    }
+
+    public GetBlobResourceRoute(StreamInput stream) throws IOException {
+        id = stream.readLong();
+        key = stream.readText();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public void writeTo(StreamOutput stream) throws IOException {
+        stream.writeLong(id);
+        stream.writeText(key);
+    }
+}
@@ -0,0 +1,80 @@
+package org.mitallast.queue.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non negative values with power of two buckets.
+ * <p>
+ * Bucket {@code n} counts values in range {@code [2^(n-1), 2^n)}, bucket 0 counts zeros, so
+ * percentile is reported with precision of bucket upper bound. Values are recorded without locks
+ * and read concurrently.
+ */
+public class Histogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(65);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("negative value: " + value);
+        }
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long prev;
+        while ((prev = max.get()) < value && !max.compareAndSet(prev, value)) {
+            // retry
+        }
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long sum() {
+        return sum.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double average() {
+        long count = count();
+        return count == 0 ? 0 : (double) sum() / count;
+    }
+
+    /**
+     * @param quantile value in range [0, 1]
+     * @return upper bound of bucket containing requested quantile, but not greater than max value
+     */
+    public long percentile(double quantile) {
+        long count = count();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0) {
+                long bound = i == 0 ? 0 : i == 64 ? Long.MAX_VALUE : (1L << i) - 1;
+                return Math.min(bound, max());
+            }
+        }
+        return max();
+    }
+
+    @Override
+    public String toString() {
+        return "Histogram{" +
+            "count=" + count() +
+            ", avg=" + average() +
+            ", p50=" + percentile(0.5) +
+            ", p99=" + percentile(0.99) +
+            ", max=" + max() +
+            '}';
+    }
+}
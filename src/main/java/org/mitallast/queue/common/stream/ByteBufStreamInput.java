@@ -27,7 +27,9 @@ public class ByteBufStreamInput extends ByteBufInputStream implements StreamInpu
         if (size == 0) {
             return Unpooled.EMPTY_BUFFER;
         }
-        return buffer.readSlice(size).retain();
+        ByteBuf copy = Unpooled.buffer(size);
+        buffer.readBytes(copy, size);
+        return copy;
     }
 
     @Override
@@ -36,11 +38,26 @@ public class ByteBufStreamInput extends ByteBufInputStream implements StreamInpu
         if (size <= 0) {
             return null;
         }
-        return buffer.readSlice(size).retain();
+        ByteBuf copy = Unpooled.buffer(size);
+        buffer.readBytes(copy, size);
+        return copy;
     }
 
     @Override
     public <T extends Streamable> T readStreamable() throws IOException {
         return classRegistry.readStreamable(this);
     }
+
+    @Override
+    public <T extends Streamable> LazyStreamable<T> readLazyStreamable() throws IOException {
+        return new LazyStreamable<>(classRegistry, readByteBuf());
+    }
+
+    @Override
+    public Class<? extends Streamable> readLazyStreamableClass() throws IOException {
+        int size = buffer.readInt();
+        Class<? extends Streamable> streamableClass = classRegistry.streamableClass(buffer.getInt(buffer.readerIndex()));
+        buffer.skipBytes(size);
+        return streamableClass;
+    }
 }
@@ -82,4 +82,19 @@ public class ByteBufStreamOutput extends ByteBufOutputStream implements StreamOu
     public <T extends Streamable> void writeClass(Class<T> streamableClass) throws IOException {
         classRegistry.writeClass(this, streamableClass);
     }
+
+    @Override
+    public <T extends Streamable> void writeLazyStreamable(LazyStreamable<T> streamable) throws IOException {
+        ByteBuf bytes = streamable.bytes();
+        if (bytes != null) {
+            writeByteBuf(bytes.duplicate());
+        } else {
+            T value = streamable.get();
+            int lengthIndex = buffer.writerIndex();
+            writeInt(0);
+            writeClass(value.getClass());
+            writeStreamable(value);
+            buffer.setInt(lengthIndex, buffer.writerIndex() - lengthIndex - Integer.BYTES);
+        }
+    }
 }
@@ -0,0 +1,120 @@
+package org.mitallast.queue.common.stream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codec of compressed batch.
+ * <p>
+ * Compressed batch is written with header [codec:byte][uncompressed size:int], so reader
+ * allocates buffer of exact size once before decompress.
+ */
+public enum Compression {
+    NONE,
+    DEFLATE;
+
+    private final static ThreadLocal<Deflater> deflater = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private final static ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(Inflater::new);
+    private final static ThreadLocal<byte[]> chunk = ThreadLocal.withInitial(() -> new byte[8192]);
+
+    public int id() {
+        return ordinal();
+    }
+
+    public static Compression parse(String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+
+    public static Compression fromId(int id) throws IOException {
+        Compression[] values = values();
+        if (id < 0 || id >= values.length) {
+            throw new IOException("Unexpected compression id[" + id + "]");
+        }
+        return values[id];
+    }
+
+    /**
+     * Write compressed bytes of source to target, source reader index is not changed.
+     */
+    public void compress(ByteBuf source, int index, int length, ByteBuf target) {
+        switch (this) {
+            case NONE:
+                target.writeBytes(source, index, length);
+                break;
+            case DEFLATE:
+                Deflater deflater = Compression.deflater.get();
+                deflater.reset();
+                if (source.hasArray()) {
+                    deflater.setInput(source.array(), source.arrayOffset() + index, length);
+                } else {
+                    deflater.setInput(ByteBufUtil.getBytes(source, index, length, false));
+                }
+                deflater.finish();
+                byte[] chunk = Compression.chunk.get();
+                while (!deflater.finished()) {
+                    int deflated = deflater.deflate(chunk);
+                    target.writeBytes(chunk, 0, deflated);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Write decompressed bytes of source to target, exactly size bytes are expected.
+     * Source reader index is not changed.
+     */
+    public void decompress(ByteBuf source, int index, int length, ByteBuf target, int size) throws IOException {
+        switch (this) {
+            case NONE:
+                if (length != size) {
+                    throw new IOException("Unexpected size " + length + ", expected " + size);
+                }
+                target.writeBytes(source, index, length);
+                break;
+            case DEFLATE:
+                Inflater inflater = Compression.inflater.get();
+                inflater.reset();
+                if (source.hasArray()) {
+                    inflater.setInput(source.array(), source.arrayOffset() + index, length);
+                } else {
+                    inflater.setInput(ByteBufUtil.getBytes(source, index, length, false));
+                }
+                target.ensureWritable(size);
+                byte[] output;
+                int offset;
+                if (target.hasArray()) {
+                    output = target.array();
+                    offset = target.arrayOffset() + target.writerIndex();
+                } else {
+                    output = new byte[size];
+                    offset = 0;
+                }
+                int inflated = 0;
+                try {
+                    while (inflated < size && !inflater.finished()) {
+                        int read = inflater.inflate(output, offset + inflated, size - inflated);
+                        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            break;
+                        }
+                        inflated += read;
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException(e);
+                }
+                if (inflated != size) {
+                    throw new IOException("Unexpected size " + inflated + ", expected " + size);
+                }
+                if (target.hasArray()) {
+                    target.writerIndex(target.writerIndex() + size);
+                } else {
+                    target.writeBytes(output, 0, size);
+                }
+                break;
+        }
+    }
+}
@@ -29,7 +29,7 @@ public class DataStreamInput extends DataInputStream implements StreamInput {
             return Unpooled.EMPTY_BUFFER;
         }
         byte[] bytes = new byte[size];
-        input.read(bytes);
+        readFully(bytes);
         return Unpooled.wrappedBuffer(bytes);
     }
 
@@ -40,7 +40,7 @@ public class DataStreamInput extends DataInputStream implements StreamInput {
             return null;
         }
         byte[] bytes = new byte[size];
-        input.read(bytes);
+        readFully(bytes);
         return Unpooled.wrappedBuffer(bytes);
     }
 
@@ -49,6 +49,19 @@ public class DataStreamInput extends DataInputStream implements StreamInput {
         return classRegistry.readStreamable(this);
     }
 
+    @Override
+    public <T extends Streamable> LazyStreamable<T> readLazyStreamable() throws IOException {
+        return new LazyStreamable<>(classRegistry, readByteBuf());
+    }
+
+    @Override
+    public Class<? extends Streamable> readLazyStreamableClass() throws IOException {
+        int size = readInt();
+        Class<? extends Streamable> streamableClass = classRegistry.streamableClass(readInt());
+        skipBytes(size - Integer.BYTES);
+        return streamableClass;
+    }
+
     @Override
     public void close() throws IOException {
         input.close();
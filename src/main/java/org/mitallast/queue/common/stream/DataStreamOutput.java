@@ -1,6 +1,7 @@
 package org.mitallast.queue.common.stream;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -68,6 +69,21 @@ public class DataStreamOutput extends DataOutputStream implements StreamOutput {
         classRegistry.writeClass(this, streamableClass);
     }
 
+    @Override
+    public <T extends Streamable> void writeLazyStreamable(LazyStreamable<T> streamable) throws IOException {
+        ByteBuf bytes = streamable.bytes();
+        if (bytes != null) {
+            writeByteBuf(bytes.duplicate());
+        } else {
+            ByteBuf buffer = Unpooled.buffer();
+            try (StreamOutput output = new ByteBufStreamOutput(classRegistry, buffer)) {
+                output.writeClass(streamable.get().getClass());
+                output.writeStreamable(streamable.get());
+            }
+            writeByteBuf(buffer);
+        }
+    }
+
     @Override
     public void close() throws IOException {
         output.flush();
@@ -15,6 +15,7 @@ import java.util.Set;
 public class InternalStreamService extends AbstractComponent implements StreamableClassRegistry, StreamService {
     private final TIntObjectMap<StreamableReader<? extends Streamable>> idToReaderMap = new TIntObjectHashMap<>(100, 0.5f, -1);
     private final TObjectIntMap<Class<? extends Streamable>> classToIdMap = new TObjectIntHashMap<>(100, 0.5f, -1);
+    private final TIntObjectMap<Class<? extends Streamable>> idToClassMap = new TIntObjectHashMap<>(100, 0.5f, -1);
 
     @SuppressWarnings("unchecked")
     @Inject
@@ -32,6 +33,7 @@ public class InternalStreamService extends AbstractComponent implements Streamab
             throw new IllegalArgumentException("Class id already registered, class: " + streamableClass + " id: " + id);
         }
         classToIdMap.put(streamableClass, id);
+        idToClassMap.put(id, streamableClass);
     }
 
     @Override
@@ -50,6 +52,15 @@ public class InternalStreamService extends AbstractComponent implements Streamab
         return (T) idToReaderMap.get(id).read(stream);
     }
 
+    @Override
+    public Class<? extends Streamable> streamableClass(int id) {
+        Class<? extends Streamable> streamableClass = idToClassMap.get(id);
+        if (streamableClass == null) {
+            throw new IllegalArgumentException("Class id not registered: " + id);
+        }
+        return streamableClass;
+    }
+
     @Override
     public StreamInput input(ByteBuf buffer) {
         return new ByteBufStreamInput(this, buffer);
@@ -0,0 +1,83 @@
+package org.mitallast.queue.common.stream;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOError;
+import java.io.IOException;
+
+/**
+ * Streamable kept in serialized form: class id followed by streamable content.
+ * Content is decoded on first {@link #get()}, and written back as is, without re-encoding.
+ */
+public class LazyStreamable<T extends Streamable> {
+    private final StreamableClassRegistry classRegistry;
+    private final ByteBuf bytes;
+    private T value;
+
+    public LazyStreamable(StreamableClassRegistry classRegistry, ByteBuf bytes) {
+        this.classRegistry = classRegistry;
+        this.bytes = bytes;
+    }
+
+    private LazyStreamable(T value) {
+        this.classRegistry = null;
+        this.bytes = null;
+        this.value = value;
+    }
+
+    public static <T extends Streamable> LazyStreamable<T> of(T value) {
+        return new LazyStreamable<>(value);
+    }
+
+    public boolean isDecoded() {
+        return value != null;
+    }
+
+    /**
+     * @return serialized form, or null if created from decoded value
+     */
+    public ByteBuf bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return streamable class, resolved by class id without decoding content
+     */
+    public Class<? extends Streamable> streamableClass() {
+        if (value != null) {
+            return value.getClass();
+        }
+        return classRegistry.streamableClass(bytes.getInt(bytes.readerIndex()));
+    }
+
+    public T get() {
+        if (value == null) {
+            try (StreamInput input = new ByteBufStreamInput(classRegistry, bytes.duplicate())) {
+                value = input.readStreamable();
+            } catch (IOException e) {
+                throw new IOError(e);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        LazyStreamable<?> that = (LazyStreamable<?>) o;
+
+        return get().equals(that.get());
+    }
+
+    @Override
+    public int hashCode() {
+        return get().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return isDecoded() ? value.toString() : streamableClass().getSimpleName();
+    }
+}
@@ -100,6 +100,18 @@ public interface StreamInput extends DataInput, Closeable {
 
     <T extends Streamable> T readStreamable() throws IOException;
 
+    /**
+     * Read streamable written by {@link StreamOutput#writeLazyStreamable(LazyStreamable)},
+     * content is not decoded until {@link LazyStreamable#get()}.
+     */
+    <T extends Streamable> LazyStreamable<T> readLazyStreamable() throws IOException;
+
+    /**
+     * Read class of streamable written by {@link StreamOutput#writeLazyStreamable(LazyStreamable)},
+     * content is skipped without copy.
+     */
+    Class<? extends Streamable> readLazyStreamableClass() throws IOException;
+
     default <T extends Streamable> T readStreamable(StreamableReader<T> reader) throws IOException {
         return reader.read(this);
     }
@@ -95,6 +95,12 @@ public interface StreamOutput extends DataOutput, Closeable {
 
     <T extends Streamable> void writeClass(Class<T> streamableClass) throws IOException;
 
+    /**
+     * Write length prefixed class id and streamable content.
+     * Serialized form is written as is, without re-encoding.
+     */
+    <T extends Streamable> void writeLazyStreamable(LazyStreamable<T> streamable) throws IOException;
+
     default <T extends Streamable> void writeStreamable(T streamable) throws IOException {
         streamable.writeTo(this);
     }
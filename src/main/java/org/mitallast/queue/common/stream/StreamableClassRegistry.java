@@ -7,4 +7,6 @@ public interface StreamableClassRegistry {
     <T extends Streamable> void writeClass(StreamOutput stream, Class<T> streamableClass) throws IOException;
 
     <T extends Streamable> T readStreamable(StreamInput stream) throws IOException;
+
+    Class<? extends Streamable> streamableClass(int id);
 }
@@ -2,37 +2,86 @@ package org.mitallast.queue.raft;
 
 import com.google.inject.Inject;
 import com.typesafe.config.Config;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
 import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.PlatformDependent;
 import org.mitallast.queue.common.component.AbstractLifecycleComponent;
-import org.mitallast.queue.common.stream.Streamable;
 
 import java.io.IOException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.Queue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Raft event loop: single dedicated thread fed by bounded lock free multi producer queue.
+ * <p>
+ * Transport, timer and client threads only enqueue tasks, so consensus work and disk I/O
+ * never run under lock in caller thread. Loop thread parks if queue is empty, and is woken
+ * up by producer. Committed entries are applied to FSM by second loop, so slow FSM does not
+ * delay heartbeats and elections, and log is forced to disk by third loop.
+ * <p>
+ * Timers are kept in hashed timing wheel, so schedule and cancel are constant time and
+ * timer thread is shared by all raft groups of node.
+ */
 public class DefaultRaftContext extends AbstractLifecycleComponent implements RaftContext {
 
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1, new DefaultThreadFactory("raft"));
+    private final HashedWheelTimer timer;
+    private final EventLoop raftLoop;
+    private final EventLoop fsmLoop;
+    private final EventLoop ioLoop;
 
     @Inject
     public DefaultRaftContext(Config config) {
         super(config, RaftContext.class);
+        this.raftLoop = new EventLoop("raft", config.getInt("raft.event-queue-size"));
+        this.fsmLoop = new EventLoop("raft-fsm", config.getInt("raft.apply-queue-size"));
+        this.ioLoop = new EventLoop("raft-io", 1024);
+        this.timer = new HashedWheelTimer(
+            new DefaultThreadFactory("raft-timer"),
+            config.getDuration("raft.timer.tick-duration", TimeUnit.MILLISECONDS),
+            TimeUnit.MILLISECONDS,
+            config.getInt("raft.timer.ticks-per-wheel")
+        );
     }
 
     @Override
-    public ScheduledFuture schedule(Runnable task, long timeout, TimeUnit timeUnit) {
-        return scheduler.schedule(task, timeout, timeUnit);
+    public boolean execute(Runnable task) {
+        return raftLoop.offer(task);
     }
 
     @Override
-    public ScheduledFuture scheduleAtFixedRate(Runnable task, long delay, long timeout, TimeUnit timeUnit) {
-        return scheduler.scheduleAtFixedRate(task, delay, timeout, timeUnit);
+    public void executeFSM(Runnable task) {
+        while (!fsmLoop.offer(task)) {
+            if (!fsmLoop.running) {
+                throw new IllegalStateException("fsm loop is closed");
+            }
+            LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(10));
+        }
+    }
+
+    @Override
+    public boolean executeIO(Runnable task) {
+        return ioLoop.offer(task);
+    }
+
+    @Override
+    public Timeout schedule(Runnable task, long timeout, TimeUnit timeUnit) {
+        return timer.newTimeout(t -> task.run(), timeout, timeUnit);
+    }
+
+    @Override
+    public Timeout scheduleAtFixedRate(Runnable task, long delay, long timeout, TimeUnit timeUnit) {
+        return new FixedRateTimeout(task, timeUnit.toNanos(delay), timeUnit.toNanos(timeout));
     }
 
     @Override
     protected void doStart() throws IOException {
+        ioLoop.thread.start();
+        fsmLoop.thread.start();
+        raftLoop.thread.start();
     }
 
     @Override
@@ -41,6 +90,123 @@ public class DefaultRaftContext extends AbstractLifecycleComponent implements Ra
 
     @Override
     protected void doClose() throws IOException {
-        scheduler.shutdown();
+        timer.stop();
+        raftLoop.close();
+        fsmLoop.close();
+        ioLoop.close();
+    }
+
+    /**
+     * Periodic task on top of one-shot wheel timeouts: next timeout is added when task is run,
+     * delay is computed from expected run time so rate does not drift.
+     */
+    private class FixedRateTimeout implements Timeout, TimerTask {
+        private final Runnable task;
+        private final long period;
+        private volatile long deadline;
+        private volatile Timeout current;
+        private volatile boolean cancelled;
+
+        private FixedRateTimeout(Runnable task, long delay, long period) {
+            this.task = task;
+            this.period = period;
+            this.deadline = System.nanoTime() + delay;
+            this.current = timer.newTimeout(this, delay, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void run(Timeout timeout) throws Exception {
+            if (cancelled) {
+                return;
+            }
+            try {
+                task.run();
+            } finally {
+                if (!cancelled) {
+                    deadline += period;
+                    current = timer.newTimeout(this, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+
+        @Override
+        public Timer timer() {
+            return timer;
+        }
+
+        @Override
+        public TimerTask task() {
+            return this;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean cancel() {
+            cancelled = true;
+            return current.cancel();
+        }
+    }
+
+    private class EventLoop {
+        private final String name;
+        private final Queue<Runnable> queue;
+        private final Thread thread;
+        private volatile boolean running = true;
+        private volatile boolean parked;
+
+        private EventLoop(String name, int capacity) {
+            this.name = name;
+            this.queue = PlatformDependent.newFixedMpscQueue(capacity);
+            this.thread = new DefaultThreadFactory(name).newThread(this::run);
+        }
+
+        private boolean offer(Runnable task) {
+            if (!queue.offer(task)) {
+                return false;
+            }
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+            return true;
+        }
+
+        private void run() {
+            while (running) {
+                Runnable task = queue.poll();
+                if (task == null) {
+                    parked = true;
+                    // re-check after publish parked flag, producer may not see it before offer
+                    if (queue.isEmpty() && running) {
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                    continue;
+                }
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    logger.error("unexpected error in {} event loop", name, e);
+                }
+            }
+        }
+
+        private void close() {
+            running = false;
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 }
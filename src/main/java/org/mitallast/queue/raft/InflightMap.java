@@ -0,0 +1,90 @@
+package org.mitallast.queue.raft;
+
+import gnu.trove.list.array.TLongArrayList;
+import org.mitallast.queue.transport.DiscoveryNode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append entries batches sent to followers and not acknowledged yet, used for pipelined replication.
+ * <p>
+ * Leader sends next batch without waiting for response while follower has less than max inflight
+ * batches, and advances next index optimistically. Batch is tracked by prev log index and index
+ * of last entry: successful response acknowledges all batches covered by it's last index, and
+ * rejected response is matched by prev log index, so responses to batches sent before rewind are
+ * ignored. Follower is probed by single batch until first successful response in term and after
+ * each rewind.
+ */
+public class InflightMap {
+    private final int maxInflight;
+    private final Map<DiscoveryNode, Inflight> backing = new HashMap<>();
+
+    public InflightMap(int maxInflight) {
+        this.maxInflight = maxInflight;
+    }
+
+    public boolean canSend(DiscoveryNode member) {
+        Inflight inflight = backing.get(member);
+        if (inflight == null) {
+            return true;
+        }
+        if (inflight.probe) {
+            return inflight.prevIndex.isEmpty();
+        }
+        return inflight.prevIndex.size() < maxInflight;
+    }
+
+    public void sent(DiscoveryNode member, long prevIndex, long lastIndex) {
+        Inflight inflight = backing.computeIfAbsent(member, node -> new Inflight());
+        inflight.prevIndex.add(prevIndex);
+        inflight.lastIndex.add(lastIndex);
+    }
+
+    /**
+     * Remove batches with last entry index less or equal than acknowledged, and stop probing.
+     */
+    public void acknowledge(DiscoveryNode member, long lastIndex) {
+        Inflight inflight = backing.computeIfAbsent(member, node -> new Inflight());
+        int count = 0;
+        while (count < inflight.lastIndex.size() && inflight.lastIndex.get(count) <= lastIndex) {
+            count++;
+        }
+        inflight.prevIndex.remove(0, count);
+        inflight.lastIndex.remove(0, count);
+        inflight.probe = false;
+    }
+
+    /**
+     * @return false if rejected batch is not inflight, otherwise all batches are discarded and follower is probed
+     */
+    public boolean reject(DiscoveryNode member, long prevIndex) {
+        Inflight inflight = backing.get(member);
+        if (inflight == null || !inflight.prevIndex.contains(prevIndex)) {
+            return false;
+        }
+        reset(member);
+        return true;
+    }
+
+    /**
+     * Discard all batches, used if response is not received in time.
+     */
+    public void reset(DiscoveryNode member) {
+        Inflight inflight = backing.computeIfAbsent(member, node -> new Inflight());
+        inflight.prevIndex.resetQuick();
+        inflight.lastIndex.resetQuick();
+        inflight.probe = true;
+    }
+
+    public int countFor(DiscoveryNode member) {
+        Inflight inflight = backing.get(member);
+        return inflight == null ? 0 : inflight.prevIndex.size();
+    }
+
+    private static class Inflight {
+        private final TLongArrayList prevIndex = new TLongArrayList();
+        private final TLongArrayList lastIndex = new TLongArrayList();
+        private boolean probe = true;
+    }
+}
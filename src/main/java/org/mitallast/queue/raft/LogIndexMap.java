@@ -1,78 +1,161 @@
 package org.mitallast.queue.raft;
 
 import com.google.common.collect.ImmutableSet;
-import gnu.trove.map.TObjectLongMap;
-import gnu.trove.map.hash.TObjectLongHashMap;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import org.mitallast.queue.raft.cluster.ClusterConfiguration;
 import org.mitallast.queue.raft.cluster.JointConsensusClusterConfiguration;
 import org.mitallast.queue.transport.DiscoveryNode;
 
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Arrays;
 
+/**
+ * Index per member, stored in primitive arrays by dense member slot.
+ * <p>
+ * Slot is assigned to member on first put or when configuration is changed, and slots of
+ * configuration members are cached, so lookup, update and quorum computation do not allocate.
+ * Quorum index is selected in reusable scratch array without sort.
+ */
 public class LogIndexMap {
-    private final TObjectLongMap<DiscoveryNode> backing;
+    private final long defaultIndex;
+    private final TObjectIntMap<DiscoveryNode> slots = new TObjectIntHashMap<>(16, 0.5f, -1);
+    private long[] indexes = new long[8];
+    private boolean[] present = new boolean[8];
+    private long[] scratch = new long[8];
+
+    private ClusterConfiguration quorumConfig;
+    private int[] oldSlots = new int[0];
+    private int[] newSlots = new int[0];
 
     public LogIndexMap(long defaultIndex) {
-        this.backing = new TObjectLongHashMap<>(64, 0.5f, defaultIndex);
+        this.defaultIndex = defaultIndex;
+        Arrays.fill(indexes, defaultIndex);
     }
 
     public long decrementFor(DiscoveryNode member) {
         long value = indexFor(member) - 1;
-        backing.put(member, value);
+        put(member, value);
         return value;
     }
 
     public void put(DiscoveryNode member, long value) {
-        backing.put(member, value);
+        int slot = slot(member);
+        indexes[slot] = value;
+        present[slot] = true;
     }
 
     public long putIfGreater(DiscoveryNode member, long value) {
-        if (backing.containsKey(member)) {
-            long prev = backing.get(member);
-            if (prev < value) {
-                backing.put(member, value);
-                return value;
-            } else {
-                return prev;
-            }
-        } else {
-            backing.put(member, value);
-            return value;
+        int slot = slot(member);
+        if (present[slot] && indexes[slot] >= value) {
+            return indexes[slot];
         }
+        indexes[slot] = value;
+        present[slot] = true;
+        return value;
     }
 
     public long consensusForIndex(ClusterConfiguration config) {
+        if (config != quorumConfig) {
+            assign(config);
+        }
         if (config.isTransitioning()) { // joint
-            long oldQuorum = indexOnMajority(((JointConsensusClusterConfiguration) config).getOldMembers());
-            long newQuorum = indexOnMajority(((JointConsensusClusterConfiguration) config).getNewMembers());
+            long oldQuorum = indexOnMajority(oldSlots);
+            long newQuorum = indexOnMajority(newSlots);
             return Math.min(oldQuorum, newQuorum);
         } else { // stable
-            return indexOnMajority(config.members());
+            return indexOnMajority(newSlots);
         }
     }
 
-    private long indexOnMajority(ImmutableSet<DiscoveryNode> include) {
-        if (include.isEmpty()) {
-            return 0;
-        }
-        int index = ceiling(include.size(), 2) - 1;
-        List<Long> sorted = include.stream()
-            .map(this::indexFor)
-            .sorted()
-            .collect(Collectors.toList());
-        return sorted.get(index);
+    public long indexFor(DiscoveryNode member) {
+        int slot = slots.get(member);
+        return slot < 0 ? defaultIndex : indexes[slot];
     }
 
-    private int ceiling(int numerator, int divisor) {
-        if (numerator % divisor == 0) {
-            return numerator / divisor;
+    private void assign(ClusterConfiguration config) {
+        if (config.isTransitioning()) {
+            oldSlots = slots(((JointConsensusClusterConfiguration) config).getOldMembers());
+            newSlots = slots(((JointConsensusClusterConfiguration) config).getNewMembers());
         } else {
-            return (numerator / divisor) + 1;
+            oldSlots = new int[0];
+            newSlots = slots(config.members());
         }
+        quorumConfig = config;
     }
 
-    public long indexFor(DiscoveryNode member) {
-        return backing.get(member);
+    private int[] slots(ImmutableSet<DiscoveryNode> members) {
+        int[] assigned = new int[members.size()];
+        int i = 0;
+        for (DiscoveryNode member : members) {
+            assigned[i++] = slot(member);
+        }
+        return assigned;
+    }
+
+    private int slot(DiscoveryNode member) {
+        int slot = slots.get(member);
+        if (slot < 0) {
+            slot = slots.size();
+            slots.put(member, slot);
+            if (slot == indexes.length) {
+                int capacity = indexes.length * 2;
+                indexes = Arrays.copyOf(indexes, capacity);
+                Arrays.fill(indexes, slot, capacity, defaultIndex);
+                present = Arrays.copyOf(present, capacity);
+                scratch = new long[capacity];
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * @return greatest index stored by majority of members
+     */
+    private long indexOnMajority(int[] include) {
+        int size = include.length;
+        if (size == 0) {
+            return 0;
+        }
+        for (int i = 0; i < size; i++) {
+            scratch[i] = indexes[include[i]];
+        }
+        // k-th smallest index, where k + 1 is a size of minority including k-th member
+        return select(scratch, size, (size + 1) / 2 - 1);
+    }
+
+    /**
+     * Quickselect of k-th smallest value in first {@code size} values of array, array is reordered.
+     */
+    static long select(long[] values, int size, int k) {
+        int left = 0;
+        int right = size - 1;
+        while (left < right) {
+            long pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    long tmp = values[i];
+                    values[i] = values[j];
+                    values[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return values[k];
+            }
+        }
+        return values[k];
     }
 }
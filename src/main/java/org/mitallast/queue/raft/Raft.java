@@ -4,15 +4,21 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
 import com.typesafe.config.Config;
+import io.netty.channel.FileRegion;
+import io.netty.util.Timeout;
 import org.mitallast.queue.Version;
+import org.mitallast.queue.common.Histogram;
 import org.mitallast.queue.common.Immutable;
 import org.mitallast.queue.common.component.AbstractLifecycleComponent;
+import org.mitallast.queue.common.stream.StreamInput;
 import org.mitallast.queue.common.stream.Streamable;
 import org.mitallast.queue.raft.cluster.ClusterConfiguration;
 import org.mitallast.queue.raft.cluster.StableClusterConfiguration;
 import org.mitallast.queue.raft.discovery.ClusterDiscovery;
+import org.mitallast.queue.raft.persistent.LogDurability;
 import org.mitallast.queue.raft.persistent.PersistentService;
 import org.mitallast.queue.raft.persistent.ReplicatedLog;
+import org.mitallast.queue.raft.persistent.SnapshotFile;
 import org.mitallast.queue.raft.protocol.*;
 import org.mitallast.queue.transport.DiscoveryNode;
 import org.mitallast.queue.transport.TransportController;
@@ -22,9 +28,14 @@ import org.slf4j.MDC;
 
 import java.io.IOError;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
-import java.util.Random;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.mitallast.queue.raft.RaftState.*;
 
@@ -35,6 +46,10 @@ public class Raft extends AbstractLifecycleComponent {
             .put(AppendEntries.class, (state, event) -> state.handle((AppendEntries) event))
             .put(AppendRejected.class, (state, event) -> state.handle((AppendRejected) event))
             .put(AppendSuccessful.class, (state, event) -> state.handle((AppendSuccessful) event))
+            .put(ReadHeartbeat.class, (state, event) -> state.handle((ReadHeartbeat) event))
+            .put(ReadHeartbeatResponse.class, (state, event) -> state.handle((ReadHeartbeatResponse) event))
+            .put(ReadIndexRequest.class, (state, event) -> state.handle((ReadIndexRequest) event))
+            .put(ReadIndexResponse.class, (state, event) -> state.handle((ReadIndexResponse) event))
             .put(ElectionTimeout.class, (state, event) -> state.handle((ElectionTimeout) event))
             .put(BeginElection.class, (state, event) -> state.handle((BeginElection) event))
             .put(RequestVote.class, (state, event) -> state.handle((RequestVote) event))
@@ -43,8 +58,12 @@ public class Raft extends AbstractLifecycleComponent {
             .put(ElectedAsLeader.class, (state, event) -> state.handle((ElectedAsLeader) event))
             .put(SendHeartbeat.class, (state, event) -> state.handle((SendHeartbeat) event))
             .put(ClientMessage.class, (state, event) -> state.handle((ClientMessage) event))
+            .put(ClientReadMessage.class, (state, event) -> state.handle((ClientReadMessage) event))
             .put(InitLogSnapshot.class, (state, event) -> state.handle((InitLogSnapshot) event))
+            .put(FlushLog.class, (state, event) -> state.handle((FlushLog) event))
+            .put(AppendClientBatch.class, (state, event) -> state.handle((AppendClientBatch) event))
             .put(InstallSnapshot.class, (state, event) -> state.handle((InstallSnapshot) event))
+            .put(InstallSnapshotProgress.class, (state, event) -> state.handle((InstallSnapshotProgress) event))
             .put(InstallSnapshotSuccessful.class, (state, event) -> state.handle((InstallSnapshotSuccessful) event))
             .put(InstallSnapshotRejected.class, (state, event) -> state.handle((InstallSnapshotRejected) event))
             .put(AddServer.class, (state, event) -> state.handle((AddServer) event))
@@ -59,18 +78,68 @@ public class Raft extends AbstractLifecycleComponent {
     private final PersistentService persistentService;
     private final ReplicatedLog replicatedLog;
     private final ResourceFSM resourceFSM;
+    private final Optional<String> group;
     private final boolean bootstrap;
     private final long electionDeadline;
     private final long heartbeat;
     private final long snapshotInterval;
+    private final int snapshotChunkSize;
+    private final int maxInflight;
+    private final long clientBatchDelay;
+    private final int clientBatchMaxEntries;
+    private final long appendBatchMaxSize;
+    private final int appendBatchMaxEntries;
+    private final LogDurability durability;
     private final RaftContext context;
-    private final ConcurrentMap<String, ScheduledFuture> timerMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timeout> timerMap = new ConcurrentHashMap<>();
     private final ConcurrentLinkedQueue<Streamable> stashed = new ConcurrentLinkedQueue<>();
+    private final ArrayList<ClientMessage> clientBatch = new ArrayList<>();
+    private final ArrayDeque<Streamable> received = new ArrayDeque<>();
+    private final Histogram clientBatchEntries = new Histogram();
+    private final Histogram clientBatchDelayMicros = new Histogram();
+    private final ArrayList<Streamable> readQueue = new ArrayList<>();
+    private final ArrayList<Streamable> readRound = new ArrayList<>();
+    private final ArrayList<ClientReadMessage> followerReadQueue = new ArrayList<>();
+    private final ArrayList<ClientReadMessage> followerReadBatch = new ArrayList<>();
+    private final ArrayList<FollowerRead> followerReadAwait = new ArrayList<>();
+    private final Histogram readRoundEntries = new Histogram();
     private volatile Optional<DiscoveryNode> recentlyContactedByLeader;
-    private volatile ImmutableMap<DiscoveryNode, Long> replicationIndex;
+    private volatile LogIndexMap replicationIndex;
+    private volatile ImmutableMap<DiscoveryNode, Long> snapshotOffset;
     private volatile LogIndexMap nextIndex;
     private volatile LogIndexMap matchIndex;
+    private volatile InflightMap inflight;
+    private volatile LogIndexMap readAcks;
+    private volatile long readRoundId;
+    private volatile long readRoundIndex;
+    private volatile long readRoundStart;
+    private volatile boolean readRoundActive;
+    private volatile long leaseExpire;
+    private volatile long leaderContact;
+    private volatile long followerReadId;
+    private volatile long followerReadSent;
+    private volatile Optional<DiscoveryNode> followerReadLeader;
+    private volatile long termStartIndex;
+    private volatile long electionDeadlineAt = Long.MAX_VALUE;
+    private volatile boolean electionCheckScheduled;
+    private volatile Timeout electionCheck;
     private volatile State state;
+    private volatile boolean initialized;
+    private volatile boolean flushScheduled;
+    private volatile ReplicatedLog.Flush pendingFlush;
+    private volatile boolean snapshotScheduled;
+    private volatile long lastApplied;
+    private volatile Optional<DiscoveryNode> flushAwaitingLeader;
+    private volatile Term flushAwaitingTerm;
+    private volatile long flushAwaitingIndex;
+    private volatile boolean clientBatchScheduled;
+    private volatile long clientBatchStart;
+    private final AtomicInteger pendingClientMessages = new AtomicInteger();
+    private final int maxPendingClientMessages;
+    private final boolean readLease;
+    private final long leaseDuration;
+    private final boolean followerRead;
+    private final long followerReadMaxStaleness;
 
     @Inject
     public Raft(
@@ -81,6 +150,22 @@ public class Raft extends AbstractLifecycleComponent {
         PersistentService persistentService,
         ResourceFSM resourceFSM,
         RaftContext context
+    ) throws IOException {
+        this(config, transportService, transportController, clusterDiscovery, persistentService, resourceFSM, context, Optional.empty());
+    }
+
+    /**
+     * @param group id of raft group, protocol messages of group are sent wrapped in {@link RaftGroupMessage}
+     */
+    public Raft(
+        Config config,
+        TransportService transportService,
+        TransportController transportController,
+        ClusterDiscovery clusterDiscovery,
+        PersistentService persistentService,
+        ResourceFSM resourceFSM,
+        RaftContext context,
+        Optional<String> group
     ) throws IOException {
         super(config.getConfig("raft"), Raft.class);
         this.transportService = transportService;
@@ -90,15 +175,40 @@ public class Raft extends AbstractLifecycleComponent {
         this.replicatedLog = persistentService.openLog();
         this.resourceFSM = resourceFSM;
         this.context = context;
+        this.group = group;
 
         recentlyContactedByLeader = Optional.empty();
+        flushAwaitingLeader = Optional.empty();
+        followerReadLeader = Optional.empty();
         nextIndex = new LogIndexMap(0);
         matchIndex = new LogIndexMap(0);
+        readAcks = new LogIndexMap(0);
 
         bootstrap = this.config.getBoolean("bootstrap");
         electionDeadline = this.config.getDuration("election-deadline", TimeUnit.MILLISECONDS);
         heartbeat = this.config.getDuration("heartbeat", TimeUnit.MILLISECONDS);
         snapshotInterval = this.config.getLong("snapshot-interval");
+        snapshotChunkSize = this.config.getBytes("snapshot-chunk-size").intValue();
+        maxInflight = this.config.getInt("max-inflight");
+        clientBatchDelay = this.config.getDuration("client-batch.delay", TimeUnit.MICROSECONDS);
+        clientBatchMaxEntries = this.config.getInt("client-batch.max-entries");
+        appendBatchMaxSize = this.config.getBytes("append-batch.max-size");
+        appendBatchMaxEntries = this.config.getInt("append-batch.max-entries");
+        if (appendBatchMaxSize >= config.getBytes("transport.max_content_length")) {
+            throw new IllegalArgumentException("append batch max size should be less than transport max content length");
+        }
+        maxPendingClientMessages = this.config.getInt("max-pending-client-messages");
+        readLease = this.config.getBoolean("read-lease.enabled");
+        // lease must expire before followers vote for new leader, even if clocks drift
+        leaseDuration = TimeUnit.MILLISECONDS.toNanos(electionDeadline) - this.config.getDuration("read-lease.clock-drift", TimeUnit.NANOSECONDS);
+        if (readLease && leaseDuration <= 0) {
+            throw new IllegalArgumentException("read lease clock drift should be less than election deadline");
+        }
+        leaseExpire = System.nanoTime();
+        followerRead = this.config.getBoolean("follower-read.enabled");
+        followerReadMaxStaleness = this.config.getDuration("follower-read.max-staleness", TimeUnit.NANOSECONDS);
+        durability = LogDurability.parse(this.config.getString("log.durability"));
+        inflight = new InflightMap(maxInflight);
     }
 
     @Override
@@ -108,16 +218,75 @@ public class Raft extends AbstractLifecycleComponent {
             new StableClusterConfiguration(),
             persistentService.votedFor()
         );
-        state = new FollowerState(meta).initialize();
+        state = new FollowerState(meta);
+        // initialize in event loop, events received before are applied after initialization
+        if (!context.execute(this::initialize)) {
+            throw new IOException("event queue is full");
+        }
+    }
+
+    private void initialize() {
+        if (lifecycle().stoppedOrClosed()) {
+            return;
+        }
+        try {
+            state = ((FollowerState) state).initialize();
+            lastApplied = replicatedLog.committedIndex();
+            initialized = true;
+        } catch (IOException e) {
+            logger.error("error initialize", e);
+            throw new IOError(e);
+        }
+        Streamable event;
+        while ((event = received.poll()) != null) {
+            handle(event);
+        }
     }
 
+    /**
+     * Events are ignored after stop, so timers and events still queued do not affect stopped raft.
+     */
     @Override
     protected void doStop() {
-        stopHeartbeat();
+        cancelTimers();
     }
 
+    /**
+     * Log is closed in raft event loop after queued events, so event handled concurrently does not use closed log.
+     */
     @Override
-    protected void doClose() {
+    protected void doClose() throws IOException {
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        Runnable close = () -> {
+            cancelTimers();
+            try {
+                replicatedLog.close();
+                closed.complete(null);
+            } catch (Throwable e) {
+                closed.completeExceptionally(e);
+            }
+        };
+        if (!context.execute(close)) {
+            close.run();
+        }
+        try {
+            closed.get(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException("error close log", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("timeout close log", e);
+        }
+    }
+
+    private void cancelTimers() {
+        timerMap.keySet().forEach(this::cancelTimer);
+        Timeout check = electionCheck;
+        if (check != null) {
+            check.cancel();
+        }
     }
 
     // fsm related
@@ -125,6 +294,26 @@ public class Raft extends AbstractLifecycleComponent {
     private State onTransition(State prevState, State newState) throws IOException {
         if (prevState.state() == Leader) {
             stopHeartbeat();
+            // not appended client messages are forwarded to new leader
+            stashed.addAll(clientBatch);
+            clientBatch.clear();
+            // not confirmed reads are forwarded to new leader too,
+            // read index requests are re-sent by followers
+            readRound.stream().filter(read -> read instanceof ClientReadMessage).forEach(stashed::add);
+            readQueue.stream().filter(read -> read instanceof ClientReadMessage).forEach(stashed::add);
+            readRound.clear();
+            readQueue.clear();
+            readRoundActive = false;
+            leaseExpire = System.nanoTime();
+        }
+        if (prevState.state() == Follower && newState.state() != Follower) {
+            // not served follower reads are handled in new state
+            followerReadAwait.forEach(await -> stashed.addAll(await.reads));
+            stashed.addAll(followerReadBatch);
+            stashed.addAll(followerReadQueue);
+            followerReadAwait.clear();
+            followerReadBatch.clear();
+            followerReadQueue.clear();
         }
         if (newState.state() == Follower) {
             resetElectionDeadline();
@@ -140,15 +329,15 @@ public class Raft extends AbstractLifecycleComponent {
     }
 
     private void cancelTimer(String timerName) {
-        ScheduledFuture timer = timerMap.remove(timerName);
+        Timeout timer = timerMap.remove(timerName);
         if (timer != null) {
-            timer.cancel(false);
+            timer.cancel();
         }
     }
 
     private void setTimer(String timerName, Streamable event, long timeout, TimeUnit timeUnit, boolean repeat) {
         cancelTimer(timerName);
-        final ScheduledFuture timer;
+        final Timeout timer;
         if (repeat) {
             timer = context.scheduleAtFixedRate(() -> apply(event), timeout, timeout, timeUnit);
         } else {
@@ -157,7 +346,46 @@ public class Raft extends AbstractLifecycleComponent {
         timerMap.put(timerName, timer);
     }
 
-    public synchronized void apply(Streamable event) {
+    /**
+     * Enqueue event to raft event loop, caller thread is never blocked by consensus work.
+     * Client messages are limited by max pending count, so queue always has room for
+     * protocol messages and timers are not delayed by client load.
+     *
+     * @return false if event queue is full and event is rejected
+     */
+    public boolean apply(Streamable event) {
+        if (lifecycle().stoppedOrClosed()) {
+            logger.debug("raft is stopped, ignore {}", event);
+            return true;
+        }
+        if (event instanceof ClientMessage || event instanceof ClientReadMessage) {
+            if (pendingClientMessages.incrementAndGet() > maxPendingClientMessages) {
+                pendingClientMessages.decrementAndGet();
+                logger.debug("too many pending client messages, reject {}", event);
+                return false;
+            }
+            if (context.execute(() -> {
+                pendingClientMessages.decrementAndGet();
+                handle(event);
+            })) {
+                return true;
+            }
+            pendingClientMessages.decrementAndGet();
+        } else if (context.execute(() -> handle(event))) {
+            return true;
+        }
+        logger.warn("event queue is full, reject {}", event);
+        return false;
+    }
+
+    private void handle(Streamable event) {
+        if (lifecycle().stoppedOrClosed()) {
+            return;
+        }
+        if (!initialized) {
+            received.add(event);
+            return;
+        }
         try {
             state = state.apply(event);
         } catch (IOException e) {
@@ -174,6 +402,30 @@ public class Raft extends AbstractLifecycleComponent {
         return state.meta();
     }
 
+    /**
+     * @return index of last entry applied to FSM, lags behind committed index while applier is busy
+     */
+    public long lastApplied() {
+        return lastApplied;
+    }
+
+    /**
+     * @return histogram of reads confirmed by single read index round
+     */
+    public Histogram readRoundEntries() {
+        return readRoundEntries;
+    }
+
+    /**
+     * @return id of raft group, empty for node default raft
+     */
+    public Optional<String> group() {
+        return group;
+    }
+
+    /**
+     * @return raft log, it is not thread safe and should be accessed only in raft event loop
+     */
     public ReplicatedLog replicatedLog() {
         return replicatedLog;
     }
@@ -182,6 +434,20 @@ public class Raft extends AbstractLifecycleComponent {
         return ImmutableList.copyOf(stashed);
     }
 
+    /**
+     * @return histogram of client messages count appended to log by leader at once
+     */
+    public Histogram clientBatchEntries() {
+        return clientBatchEntries;
+    }
+
+    /**
+     * @return histogram of time in microseconds first client message of batch waits for append
+     */
+    public Histogram clientBatchDelay() {
+        return clientBatchDelayMicros;
+    }
+
     // behavior related
 
     private void stopHeartbeat() {
@@ -194,17 +460,91 @@ public class Raft extends AbstractLifecycleComponent {
     }
 
     private void cancelElectionDeadline() {
-        cancelTimer("raft-election-timeout");
+        electionDeadlineAt = Long.MAX_VALUE;
     }
 
+    /**
+     * Election deadline is a timestamp, reset on every append entries only moves it forward.
+     * Single check timer is scheduled per raft, it is never cancelled, and is scheduled again
+     * for remaining time if deadline is moved while check was pending.
+     */
     private void resetElectionDeadline() {
         logger.debug("reset election deadline");
-        cancelElectionDeadline();
-        long timeout = new Random().nextInt((int) (electionDeadline / 2)) + electionDeadline;
-        setTimer("raft-election-timeout", ElectionTimeout.INSTANCE, timeout, TimeUnit.MILLISECONDS, false);
+        long timeout = ThreadLocalRandom.current().nextLong(electionDeadline / 2) + electionDeadline;
+        electionDeadlineAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        if (!electionCheckScheduled) {
+            electionCheckScheduled = true;
+            scheduleElectionCheck(TimeUnit.MILLISECONDS.toNanos(timeout));
+        }
+    }
+
+    private void scheduleElectionCheck(long delay) {
+        electionCheck = context.schedule(() -> {
+            if (!context.execute(this::checkElectionDeadline)) {
+                logger.warn("event queue is full, delay election deadline check");
+                scheduleElectionCheck(0);
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void checkElectionDeadline() {
+        long deadline = electionDeadlineAt;
+        if (deadline == Long.MAX_VALUE || lifecycle().stoppedOrClosed()) {
+            electionCheckScheduled = false;
+            return;
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining > 0) {
+            scheduleElectionCheck(remaining);
+        } else {
+            electionCheckScheduled = false;
+            electionDeadlineAt = Long.MAX_VALUE;
+            handle(ElectionTimeout.INSTANCE);
+        }
+    }
+
+    /**
+     * Make appended entries durable according to {@link LogDurability}.
+     * In batch mode log is forced in log thread and {@link FlushLog} event is received on
+     * completion, so leader replicates entries while local write is in flight, and all
+     * entries appended meanwhile are forced to disk at once by next flush.
+     *
+     * @return true if all appended entries are durable now
+     */
+    private boolean flushLog() {
+        switch (durability) {
+            case NONE:
+                return true;
+            case EVERY_ENTRY:
+                replicatedLog.flush();
+                return true;
+            default:
+                if (replicatedLog.isEmpty() || replicatedLog.flushedIndex() >= replicatedLog.lastIndex()) {
+                    return true;
+                }
+                if (!flushScheduled) {
+                    flushScheduled = true;
+                    ReplicatedLog.Flush flush = replicatedLog.startFlush();
+                    pendingFlush = flush;
+                    Runnable force = () -> {
+                        flush.force();
+                        apply(FlushLog.INSTANCE);
+                    };
+                    if (!context.executeIO(force)) {
+                        logger.warn("log queue is full, force log in raft thread");
+                        flush.force();
+                        context.schedule(() -> apply(FlushLog.INSTANCE), 0, TimeUnit.MILLISECONDS);
+                    }
+                }
+                return false;
+        }
     }
 
     private void send(DiscoveryNode node, Streamable message) {
+        if (group.isPresent() && consumerMap.containsKey(message.getClass())) {
+            // client responses are sent as is
+            message = new RaftGroupMessage(group.get(), message);
+        }
         if (node.equals(clusterDiscovery.self())) {
             transportController.dispatch(new MessageTransportFrame(Version.CURRENT, message));
         } else {
@@ -217,13 +557,163 @@ public class Raft extends AbstractLifecycleComponent {
         }
     }
 
+    /**
+     * Hand committed entries to FSM applier thread, raft thread is blocked only if applier queue is full.
+     * Cluster configuration and noop entries are handled in raft thread and only advance last applied index.
+     */
+    private void applyCommitted(List<LogEntry> entries, boolean respond) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        context.executeFSM(() -> {
+            for (LogEntry entry : entries) {
+                if (entry.isCommand(ClusterConfiguration.class) || entry.isCommand(Noop.class)) {
+                    continue;
+                }
+                if (entry.isCommand(RaftSnapshot.class)) {
+                    logger.warn("unexpected raft snapshot in log");
+                    continue;
+                }
+                logger.debug("applying command[index={}]: {}", entry.getIndex(), entry.getCommandClass());
+                Streamable result = resourceFSM.apply(entry.getCommand());
+                if (respond && result != null) {
+                    send(entry.getClient(), result);
+                }
+            }
+            lastApplied = entries.get(entries.size() - 1).getIndex();
+        });
+    }
+
+    /**
+     * Executed in FSM applier thread.
+     */
+    private void applyRead(ClientReadMessage read) {
+        Streamable result = resourceFSM.apply(read.getCmd());
+        if (result != null) {
+            send(read.getClient(), result);
+        }
+    }
+
+    /**
+     * Executed in raft thread after FSM prepared snapshot. Snapshot file is already written and forced
+     * in applier thread, so compaction only moves it to snapshot store and removes covered segments.
+     */
+    private void compactLog(RaftSnapshotMetadata snapshotMeta, Optional<SnapshotFile> snapshot) {
+        snapshotScheduled = false;
+        if (!snapshot.isPresent()) {
+            return;
+        }
+        if (lifecycle().stoppedOrClosed()) {
+            logger.info("raft is stopped, ignore {}", snapshotMeta);
+            deleteSnapshot(snapshot.get());
+            return;
+        }
+        if (replicatedLog.hasSnapshot() && persistentService.snapshotFile().meta().getLastIncludedIndex() >= snapshotMeta.getLastIncludedIndex()) {
+            logger.info("log already compacted with snapshot {}, ignore {}", persistentService.snapshotFile(), snapshotMeta);
+            deleteSnapshot(snapshot.get());
+            return;
+        }
+        logger.info("successfully prepared snapshot for {}:{}, compacting log now", snapshotMeta.getLastIncludedIndex(), snapshotMeta.getLastIncludedTerm());
+        replicatedLog.compactWith(snapshot.get(), clusterDiscovery.self());
+    }
+
+    private void deleteSnapshot(SnapshotFile snapshot) {
+        try {
+            snapshot.delete();
+        } catch (IOException e) {
+            logger.error("error delete snapshot file {}", snapshot, e);
+            throw new IOError(e);
+        }
+    }
+
     private void senderIsCurrentLeader(DiscoveryNode leader) {
         logger.debug("leader is {}", leader);
         recentlyContactedByLeader = Optional.of(leader);
+        leaderContact = System.nanoTime();
+        if (!followerReadBatch.isEmpty() && !followerReadLeader.equals(recentlyContactedByLeader)) {
+            logger.info("leader changed, resend read index request to {}", leader);
+            sendReadIndexRequest(leader);
+        } else if (!followerReadBatch.isEmpty() && leaderContact - followerReadSent >= TimeUnit.MILLISECONDS.toNanos(heartbeat)) {
+            // request or response may be lost, response to previous request id is ignored, so re-send is safe
+            logger.info("no read index response in heartbeat interval, resend read index request to {}", leader);
+            sendReadIndexRequest(leader);
+        } else {
+            maybeSendReadIndexRequest();
+        }
+    }
+
+    /**
+     * Request read index from leader for all queued follower reads. Reads received
+     * while request is in progress are queued and sent by next request.
+     */
+    private void maybeSendReadIndexRequest() {
+        if (!followerReadBatch.isEmpty() || followerReadQueue.isEmpty() || !recentlyContactedByLeader.isPresent()) {
+            return;
+        }
+        followerReadBatch.addAll(followerReadQueue);
+        followerReadQueue.clear();
+        sendReadIndexRequest(recentlyContactedByLeader.get());
+    }
+
+    private void sendReadIndexRequest(DiscoveryNode leader) {
+        followerReadId++;
+        followerReadLeader = Optional.of(leader);
+        followerReadSent = System.nanoTime();
+        send(leader, new ReadIndexRequest(clusterDiscovery.self(), followerReadId));
+    }
+
+    /**
+     * Pass follower reads to applier after entries up to their read index are committed,
+     * so reads are applied after them.
+     */
+    private void releaseFollowerReads() {
+        long committedIndex = replicatedLog.committedIndex();
+        Iterator<FollowerRead> iterator = followerReadAwait.iterator();
+        while (iterator.hasNext()) {
+            FollowerRead await = iterator.next();
+            if (await.readIndex <= committedIndex) {
+                iterator.remove();
+                context.executeFSM(() -> await.reads.forEach(this::applyRead));
+            }
+        }
+    }
+
+    /**
+     * @return true if read lease is enabled and leader may hold it, so vote for other candidate is not granted
+     */
+    private boolean leaderLeaseMayBeValid(DiscoveryNode candidate) {
+        return readLease
+            && recentlyContactedByLeader.isPresent()
+            && !recentlyContactedByLeader.get().equals(candidate)
+            && System.nanoTime() - leaderContact < TimeUnit.MILLISECONDS.toNanos(electionDeadline);
+    }
+
+    /**
+     * Leader holds read lease if majority confirmed leadership by heartbeat sent less than
+     * election deadline minus clock drift ago, and entry from it's term is applied. While lease is
+     * valid no other leader can be elected, so local FSM state may be read without heartbeat round.
+     * <p>
+     * Lease state is updated in raft thread, so lease is checked there, other readers use {@link ClientReadMessage}.
+     */
+    boolean hasReadLease() {
+        return readLease
+            && state.state() == Leader
+            && lastApplied >= termStartIndex
+            && System.nanoTime() - leaseExpire < 0;
     }
 
     // additional classes
 
+    private static class FollowerRead {
+        private final long readIndex;
+        private final ImmutableList<ClientReadMessage> reads;
+
+        private FollowerRead(long readIndex, ImmutableList<ClientReadMessage> reads) {
+            this.readIndex = readIndex;
+            this.reads = reads;
+        }
+    }
+
     @FunctionalInterface
     private interface StateConsumer {
         State apply(State state, Streamable event) throws IOException;
@@ -269,6 +759,25 @@ public class Raft extends AbstractLifecycleComponent {
             return stay();
         }
 
+        // read index
+
+        public abstract State handle(ReadHeartbeat message) throws IOException;
+
+        public State handle(ReadHeartbeatResponse message) throws IOException {
+            logger.debug("unhandled: {} in {}", message, state());
+            return stay();
+        }
+
+        public State handle(ReadIndexRequest message) throws IOException {
+            logger.debug("unhandled: {} in {}", message, state());
+            return stay();
+        }
+
+        public State handle(ReadIndexResponse message) throws IOException {
+            logger.debug("unhandled: {} in {}", message, state());
+            return stay();
+        }
+
         // election
 
         public State handle(ElectionTimeout message) throws IOException {
@@ -307,25 +816,75 @@ public class Raft extends AbstractLifecycleComponent {
 
         public abstract State handle(ClientMessage message) throws IOException;
 
+        public abstract State handle(ClientReadMessage message) throws IOException;
+
+        // durability
+
+        @SuppressWarnings("unused")
+        public State handle(FlushLog message) throws IOException {
+            flushScheduled = false;
+            if (pendingFlush != null) {
+                replicatedLog.flushed(pendingFlush);
+                pendingFlush = null;
+            }
+            // entries appended while flush was in flight
+            flushLog();
+            return stay();
+        }
+
+        @SuppressWarnings("unused")
+        public State handle(AppendClientBatch message) throws IOException {
+            clientBatchScheduled = false;
+            return stay();
+        }
+
         // snapshot
 
         @SuppressWarnings("unused")
         public State handle(InitLogSnapshot message) throws IOException {
+            if (snapshotScheduled) {
+                logger.debug("snapshot already in progress");
+                return stay(meta);
+            }
             long committedIndex = replicatedLog.committedIndex();
             RaftSnapshotMetadata snapshotMeta = new RaftSnapshotMetadata(replicatedLog.termAt(committedIndex), committedIndex, meta.getConfig());
             logger.info("init snapshot up to: {}:{}", snapshotMeta.getLastIncludedIndex(), snapshotMeta.getLastIncludedTerm());
 
-            Optional<RaftSnapshot> snapshot = resourceFSM.prepareSnapshot(snapshotMeta);
-            if (snapshot.isPresent()) {
-                logger.info("successfully prepared snapshot for {}:{}, compacting log now", snapshotMeta.getLastIncludedIndex(), snapshotMeta.getLastIncludedTerm());
-                replicatedLog.compactWith(snapshot.get(), clusterDiscovery.self());
-            }
+            // snapshot is prepared and written to disk in applier thread after all committed
+            // entries are applied, and log is compacted with written file back in raft thread
+            snapshotScheduled = true;
+            context.executeFSM(() -> {
+                Optional<SnapshotFile> snapshot = Optional.empty();
+                if (lastApplied == snapshotMeta.getLastIncludedIndex()) {
+                    Optional<RaftSnapshot> prepared = resourceFSM.prepareSnapshot(snapshotMeta);
+                    if (prepared.isPresent()) {
+                        try {
+                            snapshot = Optional.of(persistentService.writeSnapshot(prepared.get()));
+                        } catch (IOException e) {
+                            logger.error("error write snapshot {}", snapshotMeta, e);
+                        }
+                    }
+                } else {
+                    logger.warn("last applied {} does not match snapshot index {}", lastApplied, snapshotMeta.getLastIncludedIndex());
+                }
+                Optional<SnapshotFile> written = snapshot;
+                if (!context.execute(() -> compactLog(snapshotMeta, written))) {
+                    logger.warn("event queue is full, skip snapshot {}", snapshotMeta);
+                    snapshotScheduled = false;
+                    written.ifPresent(Raft.this::deleteSnapshot);
+                }
+            });
 
             return stay(meta);
         }
 
         public abstract State handle(InstallSnapshot message) throws IOException;
 
+        public State handle(InstallSnapshotProgress message) throws IOException {
+            logger.debug("unhandled: {} in {}", message, state());
+            return stay();
+        }
+
         public State handle(InstallSnapshotSuccessful message) throws IOException {
             logger.debug("unhandled: {} in {}", message, state());
             return stay();
@@ -396,13 +955,13 @@ public class Raft extends AbstractLifecycleComponent {
                     return apply(ElectionTimeout.INSTANCE);
                 }
             } else {
-                ClusterConfiguration config = replicatedLog.entries().stream()
-                    .map(LogEntry::getCommand)
-                    .filter(cmd -> cmd instanceof ClusterConfiguration)
-                    .map(cmd -> (ClusterConfiguration) cmd)
-                    .reduce(meta().getConfig(), (a, b) -> b);
+                ClusterConfiguration config = replicatedLog.lastEntryOf(ClusterConfiguration.class)
+                    .map(entry -> (ClusterConfiguration) entry.getCommand())
+                    .orElse(meta().getConfig());
 
                 RaftMetadata meta = meta().withConfig(config).withTerm(replicatedLog.lastTerm());
+                // election is started if leader is not found after restart of whole cluster
+                resetElectionDeadline();
                 return stay(meta);
             }
         }
@@ -417,8 +976,60 @@ public class Raft extends AbstractLifecycleComponent {
             return stay();
         }
 
+        @Override
+        public State handle(ClientReadMessage message) throws IOException {
+            if (!recentlyContactedByLeader.isPresent()) {
+                stash(message);
+            } else if (!followerRead) {
+                send(recentlyContactedByLeader.get(), message);
+            } else if (followerReadMaxStaleness > 0 && System.nanoTime() - leaderContact <= followerReadMaxStaleness) {
+                // bounded staleness, local state may lag behind leader
+                context.executeFSM(() -> applyRead(message));
+            } else {
+                followerReadQueue.add(message);
+                maybeSendReadIndexRequest();
+            }
+            return stay();
+        }
+
+        @Override
+        public State handle(ReadIndexResponse message) throws IOException {
+            if (message.getId() != followerReadId || followerReadBatch.isEmpty()) {
+                logger.debug("ignore stale read index response {}", message);
+                return stay();
+            }
+            logger.debug("read index {} for {} reads", message.getReadIndex(), followerReadBatch.size());
+            followerReadAwait.add(new FollowerRead(message.getReadIndex(), ImmutableList.copyOf(followerReadBatch)));
+            followerReadBatch.clear();
+            releaseFollowerReads();
+            maybeSendReadIndexRequest();
+            return stay();
+        }
+
+        @Override
+        public State handle(ReadHeartbeat message) throws IOException {
+            RaftMetadata meta = meta();
+            if (message.getTerm().greater(meta.getCurrentTerm())) {
+                logger.info("received newer {}, current term is {}", message.getTerm(), meta.getCurrentTerm());
+                meta = meta.withTerm(message.getTerm());
+            }
+            if (!message.getTerm().less(meta.getCurrentTerm())) {
+                resetElectionDeadline();
+                senderIsCurrentLeader(message.getMember());
+            }
+            // response with newer term forces stale leader to step down
+            send(message.getMember(), new ReadHeartbeatResponse(clusterDiscovery.self(), meta.getCurrentTerm(), message.getRound()));
+            return meta == meta() ? stay() : stay(meta);
+        }
+
         @Override
         public State handle(RequestVote message) throws IOException {
+            if (leaderLeaseMayBeValid(message.getCandidate())) {
+                logger.info("rejecting vote for {} at term {}, leader {} may hold read lease",
+                    message.getCandidate(), message.getTerm(), recentlyContactedByLeader.get());
+                send(message.getCandidate(), new DeclineCandidate(clusterDiscovery.self(), meta().getCurrentTerm()));
+                return stay();
+            }
             RaftMetadata meta = meta();
             if (message.getTerm().greater(meta.getCurrentTerm())) {
                 logger.info("received newer {}, current term is {}", message.getTerm(), meta.getCurrentTerm());
@@ -476,62 +1087,95 @@ public class Raft extends AbstractLifecycleComponent {
             // 1) Reply false if term < currentTerm (5.1)
             if (message.getTerm().less(meta.getCurrentTerm())) {
                 logger.warn("rejecting write (old term): {} < {} ", message.getTerm(), meta.getCurrentTerm());
-                send(message.getMember(), new AppendRejected(clusterDiscovery.self(), meta.getCurrentTerm()));
+                send(message.getMember(), new AppendRejected(clusterDiscovery.self(), meta.getCurrentTerm(), message.getPrevLogIndex()));
                 return stay(meta);
             }
             // 2) Reply false if log doesn’t contain an entry at prevLogIndex whose term matches prevLogTerm (5.3)
             if (!replicatedLog.containsMatchingEntry(message.getPrevLogTerm(), message.getPrevLogIndex())) {
                 logger.warn("rejecting write (inconsistent log): {}:{} {} ", message.getPrevLogTerm(), message.getPrevLogIndex(), replicatedLog);
-                send(message.getMember(), new AppendRejected(clusterDiscovery.self(), meta.getCurrentTerm()));
+                send(message.getMember(), rejectInconsistent(message, meta));
                 return stay(meta);
             } else {
                 return appendEntries(message, meta);
             }
         }
 
+        /**
+         * Reject with hint for leader to rewind next index by one round trip per term: term of entry
+         * at prev index and first index of that term, or next index of log if prev entry is missing.
+         * Committed entries always match leader, so hint does not go below committed index.
+         */
+        private AppendRejected rejectInconsistent(AppendEntries message, RaftMetadata meta) {
+            long prevIndex = message.getPrevLogIndex();
+            long committedIndex = replicatedLog.committedIndex();
+            if (prevIndex >= replicatedLog.nextIndex()) {
+                return new AppendRejected(clusterDiscovery.self(), meta.getCurrentTerm(), prevIndex, new Term(0), replicatedLog.nextIndex());
+            }
+            if (prevIndex <= committedIndex || !replicatedLog.containsEntryAt(prevIndex)) {
+                return new AppendRejected(clusterDiscovery.self(), meta.getCurrentTerm(), prevIndex, new Term(0), committedIndex + 1);
+            }
+            Term conflictTerm = replicatedLog.termAt(prevIndex);
+            long conflictIndex = prevIndex;
+            while (conflictIndex - 1 > committedIndex
+                && replicatedLog.containsEntryAt(conflictIndex - 1)
+                && replicatedLog.termAt(conflictIndex - 1).equals(conflictTerm)) {
+                conflictIndex--;
+            }
+            return new AppendRejected(clusterDiscovery.self(), meta.getCurrentTerm(), prevIndex, conflictTerm, conflictIndex);
+        }
+
         private State appendEntries(AppendEntries msg, RaftMetadata meta) throws IOException {
             senderIsCurrentLeader(msg.getMember());
 
-            if (!msg.getEntries().isEmpty()) {
-                // If an existing entry conflicts with a new one (same index
-                // but different terms), delete the existing entry and all that
-                // follow it (5.3)
+            // If an existing entry conflicts with a new one (same index
+            // but different terms), delete the existing entry and all that
+            // follow it (5.3)
 
-                // Append any new entries not already in the log
+            // Append any new entries not already in the log
 
-                long prevIndex = msg.getEntries().get(0).getIndex() - 1;
-                logger.debug("append({}, {})", msg.getEntries(), prevIndex);
-                replicatedLog.append(msg.getEntries(), prevIndex);
+            // With pipelined replication batch may be received again after
+            // following batches, so entries already in the log are skipped
+            // instead of truncating the log after prev log index
+            ImmutableList<LogEntry> append = newEntries(msg.getEntries());
+            if (!append.isEmpty()) {
+                long prevIndex = append.get(0).getIndex() - 1;
+                logger.debug("append({}, {})", append, prevIndex);
+                replicatedLog.append(append, prevIndex);
+            }
+            // index of last new entry, entries after it are not verified by leader
+            long lastIndex = msg.getPrevLogIndex() + msg.getEntries().size();
+            if (flushLog()) {
+                logger.debug("response append successful term:{} lastIndex:{}", meta.getCurrentTerm(), lastIndex);
+                AppendSuccessful response = new AppendSuccessful(clusterDiscovery.self(), meta.getCurrentTerm(), lastIndex);
+                send(msg.getMember(), response);
+            } else {
+                // response will be sent after flush
+                flushAwaitingLeader = Optional.of(msg.getMember());
+                flushAwaitingTerm = meta.getCurrentTerm();
+                flushAwaitingIndex = lastIndex;
             }
-            logger.debug("response append successful term:{} lastIndex:{}", meta.getCurrentTerm(), replicatedLog.lastIndex());
-            AppendSuccessful response = new AppendSuccessful(clusterDiscovery.self(), meta.getCurrentTerm(), replicatedLog.lastIndex());
-            send(msg.getMember(), response);
 
             // If leaderCommit > commitIndex, set commitIndex = min(leaderCommit, index of last new entry)
 
             if (msg.getLeaderCommit() > replicatedLog.committedIndex()) {
                 ImmutableList<LogEntry> entries = replicatedLog.slice(replicatedLog.committedIndex() + 1, msg.getLeaderCommit());
                 for (LogEntry entry : entries) {
-                    if (entry.getCommand() instanceof ClusterConfiguration) {
+                    if (entry.isCommand(ClusterConfiguration.class)) {
                         logger.info("apply new configuration: {}", entry.getCommand());
                         meta = meta.withConfig((ClusterConfiguration) entry.getCommand());
-                    } else if (entry.getCommand() instanceof Noop) {
-                        logger.trace("ignore noop entry");
-                    } else if (entry.getCommand() instanceof RaftSnapshot) {
-                        logger.warn("unexpected raft snapshot in log");
                     } else {
                         logger.debug("committing entry {} on follower, leader is committed until [{}]", entry, msg.getLeaderCommit());
-                        resourceFSM.apply(entry.getCommand());
                     }
                     replicatedLog.commit(entry.getIndex());
                 }
+                applyCommitted(entries, false);
+                releaseFollowerReads();
             }
 
 
             ClusterConfiguration config = msg.getEntries().stream()
-                .map(LogEntry::getCommand)
-                .filter(cmd -> cmd instanceof ClusterConfiguration)
-                .map(cmd -> (ClusterConfiguration) cmd)
+                .filter(entry -> entry.isCommand(ClusterConfiguration.class))
+                .map(entry -> (ClusterConfiguration) entry.getCommand())
                 .reduce(meta.getConfig(), (a, b) -> b);
 
             resetElectionDeadline();
@@ -544,6 +1188,44 @@ public class Raft extends AbstractLifecycleComponent {
             }
         }
 
+        /**
+         * @return entries starting from first entry missing in log or conflicting with it
+         */
+        private ImmutableList<LogEntry> newEntries(ImmutableList<LogEntry> entries) {
+            int skip = 0;
+            for (LogEntry entry : entries) {
+                // last index of empty log is 1, so next index is compared to not skip first entry
+                if (entry.getIndex() >= replicatedLog.nextIndex()) {
+                    break;
+                }
+                // entries before log start are compacted, so they are committed and can not conflict
+                if (replicatedLog.containsEntryAt(entry.getIndex()) && !replicatedLog.termAt(entry.getIndex()).equals(entry.getTerm())) {
+                    break;
+                }
+                skip++;
+            }
+            return entries.subList(skip, entries.size());
+        }
+
+        @Override
+        public State handle(FlushLog message) throws IOException {
+            super.handle(message);
+            if (flushAwaitingLeader.isPresent()) {
+                if (flushAwaitingTerm.equals(meta().getCurrentTerm())) {
+                    long lastIndex = Math.min(flushAwaitingIndex, replicatedLog.flushedIndex());
+                    logger.debug("response append successful term:{} lastIndex:{}", meta().getCurrentTerm(), lastIndex);
+                    AppendSuccessful response = new AppendSuccessful(clusterDiscovery.self(), meta().getCurrentTerm(), lastIndex);
+                    send(flushAwaitingLeader.get(), response);
+                    // entries appended while flush was in flight are acknowledged after next flush
+                    if (lastIndex < flushAwaitingIndex && flushScheduled) {
+                        return stay();
+                    }
+                }
+                flushAwaitingLeader = Optional.empty();
+            }
+            return stay();
+        }
+
         @Override
         public State handle(ElectionTimeout message) throws IOException {
             resetElectionDeadline();
@@ -620,11 +1302,37 @@ public class Raft extends AbstractLifecycleComponent {
                 return stay(meta);
             } else {
                 resetElectionDeadline();
-                logger.info("got snapshot from {}, is for: {}", message.getLeader(), message.getSnapshot().getMeta());
+                senderIsCurrentLeader(message.getLeader());
 
-                meta = meta.withConfig(message.getSnapshot().getMeta().getConfig());
-                replicatedLog.compactWith(message.getSnapshot(), clusterDiscovery.self());
-                resourceFSM.apply(message.getSnapshot().getData());
+                SnapshotFile file = persistentService.receiveSnapshot(message.getMeta());
+                long offset = file.length();
+                if (message.getOffset() != offset) {
+                    logger.info("unexpected snapshot chunk offset {}, expected {}", message.getOffset(), offset);
+                    send(message.getLeader(), new InstallSnapshotProgress(clusterDiscovery.self(), meta.getCurrentTerm(), message.getMeta().getLastIncludedIndex(), offset));
+                    return stay(meta);
+                }
+                file.append(message.getData());
+                if (!message.isDone()) {
+                    logger.debug("received snapshot chunk {}, {} bytes", message.getOffset(), message.getData().readableBytes());
+                    send(message.getLeader(), new InstallSnapshotProgress(clusterDiscovery.self(), meta.getCurrentTerm(), message.getMeta().getLastIncludedIndex(), file.length()));
+                    return stay(meta);
+                }
+                logger.info("got snapshot from {}, is for: {}, {} bytes", message.getLeader(), file.meta(), file.length());
+
+                meta = meta.withConfig(file.meta().getConfig());
+                // opened before file is moved to snapshot store, snapshot is decoded in applier thread
+                StreamInput input = file.input();
+                replicatedLog.compactWith(file, clusterDiscovery.self());
+                long snapshotIndex = file.meta().getLastIncludedIndex();
+                context.executeFSM(() -> {
+                    try (StreamInput snapshot = input) {
+                        resourceFSM.apply(snapshot.readStreamable(RaftSnapshot::new).getData());
+                    } catch (IOException e) {
+                        logger.error("error read snapshot", e);
+                        throw new IOError(e);
+                    }
+                    lastApplied = snapshotIndex;
+                });
 
                 logger.info("response snapshot installed in {} last index {}", meta.getCurrentTerm(), replicatedLog.lastIndex());
                 send(message.getLeader(), new InstallSnapshotSuccessful(clusterDiscovery.self(), meta.getCurrentTerm(), replicatedLog.lastIndex()));
@@ -678,6 +1386,22 @@ public class Raft extends AbstractLifecycleComponent {
             return stay();
         }
 
+        @Override
+        public State handle(ClientReadMessage message) throws IOException {
+            stash(message);
+            return stay();
+        }
+
+        @Override
+        public State handle(ReadHeartbeat message) throws IOException {
+            if (message.getTerm().greaterOrEqual(meta().getCurrentTerm())) {
+                logger.info("reverting to follower, because got read heartbeat from leader in {}, but am in {}", message.getTerm(), meta().getCurrentTerm());
+                return gotoFollower(meta().withTerm(message.getTerm()).forFollower()).apply(message);
+            }
+            send(message.getMember(), new ReadHeartbeatResponse(clusterDiscovery.self(), meta().getCurrentTerm(), message.getRound()));
+            return stay();
+        }
+
         @Override
         public State handle(AddServer request) throws IOException {
             send(request.getMember(), new AddServerResponse(
@@ -832,9 +1556,22 @@ public class Raft extends AbstractLifecycleComponent {
             // (initialized to 0, increases monotonically)
             matchIndex = new LogIndexMap(0);
 
+            // for each server, append entries batches
+            // sent without response yet
+            inflight = new InflightMap(maxInflight);
+
+            // for each server, last confirmed read round
+            readAcks = new LogIndexMap(0);
+            readRoundActive = false;
+            leaseExpire = System.nanoTime();
+
             // for each server store last send heartbeat time
             // 0 if no response is expected
-            replicationIndex = ImmutableMap.of();
+            replicationIndex = new LogIndexMap(0);
+
+            // for each server, offset of next snapshot chunk
+            // if snapshot transfer is in progress
+            snapshotOffset = ImmutableMap.of();
 
             final LogEntry entry;
             if (replicatedLog.isEmpty()) {
@@ -844,7 +1581,11 @@ public class Raft extends AbstractLifecycleComponent {
             }
 
             replicatedLog.append(entry);
-            matchIndex.put(clusterDiscovery.self(), entry.getIndex());
+            // reads are served only after first entry of term is committed
+            termStartIndex = entry.getIndex();
+            if (flushLog()) {
+                matchIndex.put(clusterDiscovery.self(), entry.getIndex());
+            }
 
             sendHeartbeat(meta());
             startHeartbeat();
@@ -855,16 +1596,181 @@ public class Raft extends AbstractLifecycleComponent {
         @Override
         public State handle(SendHeartbeat message) throws IOException {
             sendHeartbeat(meta());
+            // re-send read heartbeat to members not responded in time
+            if (readRoundActive) {
+                for (DiscoveryNode member : meta().membersWithout(clusterDiscovery.self())) {
+                    if (readAcks.indexFor(member) < readRoundId) {
+                        send(member, new ReadHeartbeat(clusterDiscovery.self(), meta().getCurrentTerm(), readRoundId));
+                    }
+                }
+            } else if (readLease) {
+                // renew lease without reads
+                maybeStartReadRound(meta(), true);
+            }
+            return stay();
+        }
+
+        @Override
+        public State handle(ClientReadMessage message) throws IOException {
+            logger.debug("read command: [{}] from {}", message.getCmd(), message.getClient());
+            if (hasReadLease()) {
+                // all acknowledged writes are applied, read local state
+                context.executeFSM(() -> applyRead(message));
+                return stay();
+            }
+            readQueue.add(message);
+            maybeStartReadRound(meta(), false);
+            return stay();
+        }
+
+        @Override
+        public State handle(ReadHeartbeat message) throws IOException {
+            if (message.getTerm().greater(meta().getCurrentTerm())) {
+                logger.info("leader ({}) got read heartbeat from fresher leader ({}), will step down", meta().getCurrentTerm(), message.getTerm());
+                return gotoFollower(meta().withTerm(message.getTerm()).forFollower()).apply(message);
+            }
+            send(message.getMember(), new ReadHeartbeatResponse(clusterDiscovery.self(), meta().getCurrentTerm(), message.getRound()));
+            return stay();
+        }
+
+        @Override
+        public State handle(ReadIndexRequest message) throws IOException {
+            if (hasReadLease()) {
+                send(message.getMember(), new ReadIndexResponse(clusterDiscovery.self(), meta().getCurrentTerm(), message.getId(), replicatedLog.committedIndex()));
+                return stay();
+            }
+            readQueue.add(message);
+            maybeStartReadRound(meta(), false);
+            return stay();
+        }
+
+        @Override
+        public State handle(ReadHeartbeatResponse message) throws IOException {
+            if (message.getTerm().greater(meta().getCurrentTerm())) {
+                return gotoFollower(meta().withTerm(message.getTerm()).forFollower());
+            }
+            if (message.getTerm().equals(meta().getCurrentTerm())) {
+                readAcks.putIfGreater(message.getMember(), message.getRound());
+                maybeCompleteReadRound(meta());
+            }
             return stay();
         }
 
+        /**
+         * Start read index round for all queued reads: record committed index
+         * and confirm leadership by heartbeat to all members. Reads received while
+         * round is in progress are queued and confirmed by next round. If read lease
+         * is enabled, confirmed round renews lease.
+         */
+        private void maybeStartReadRound(RaftMetadata meta, boolean renewLease) throws IOException {
+            if (readRoundActive || (readQueue.isEmpty() && !renewLease)) {
+                return;
+            }
+            long committedIndex = replicatedLog.committedIndex();
+            if (committedIndex < termStartIndex) {
+                logger.debug("no entries committed in current term, delay reads");
+                return;
+            }
+            readRoundId++;
+            readRoundIndex = committedIndex;
+            readRoundStart = System.nanoTime();
+            readRoundActive = true;
+            readRound.addAll(readQueue);
+            readQueue.clear();
+            readAcks.put(clusterDiscovery.self(), readRoundId);
+            for (DiscoveryNode member : meta.membersWithout(clusterDiscovery.self())) {
+                send(member, new ReadHeartbeat(clusterDiscovery.self(), meta.getCurrentTerm(), readRoundId));
+            }
+            maybeCompleteReadRound(meta);
+        }
+
+        private void maybeCompleteReadRound(RaftMetadata meta) throws IOException {
+            if (!readRoundActive || readAcks.consensusForIndex(meta.getConfig()) < readRoundId) {
+                return;
+            }
+            readRoundActive = false;
+            if (readLease) {
+                leaseExpire = readRoundStart + leaseDuration;
+            }
+            if (!readRound.isEmpty()) {
+                readRoundEntries.record(readRound.size());
+                logger.debug("read round {} confirmed, {} reads at index {}", readRoundId, readRound.size(), readRoundIndex);
+                ImmutableList.Builder<ClientReadMessage> reads = ImmutableList.builder();
+                for (Streamable read : readRound) {
+                    if (read instanceof ReadIndexRequest) {
+                        ReadIndexRequest request = (ReadIndexRequest) read;
+                        send(request.getMember(), new ReadIndexResponse(clusterDiscovery.self(), meta.getCurrentTerm(), request.getId(), readRoundIndex));
+                    } else {
+                        reads.add((ClientReadMessage) read);
+                    }
+                }
+                readRound.clear();
+                // entries up to read index are already passed to applier,
+                // so reads are applied after them
+                ImmutableList<ClientReadMessage> local = reads.build();
+                if (!local.isEmpty()) {
+                    context.executeFSM(() -> local.forEach(Raft.this::applyRead));
+                }
+            }
+            maybeStartReadRound(meta, false);
+        }
+
         @Override
         public State handle(ClientMessage message) throws IOException {
-            logger.debug("appending command: [{}] from {} to replicated log", message.getCmd(), message.getClient());
-            LogEntry entry = new LogEntry(message.getCmd(), meta().getCurrentTerm(), replicatedLog.nextIndex(), message.getClient());
-            replicatedLog.append(entry);
-            matchIndex.put(clusterDiscovery.self(), entry.getIndex());
-            sendHeartbeat(meta());
+            logger.debug("batching command: [{}] from {}", message.getCmd(), message.getClient());
+            if (clientBatch.isEmpty()) {
+                clientBatchStart = System.nanoTime();
+            }
+            clientBatch.add(message);
+            // append without delay if there is no entries waiting for commit,
+            // so single client is not delayed, and configuration changes are
+            // appended immediately
+            if (clientBatchDelay == 0
+                || clientBatch.size() >= clientBatchMaxEntries
+                || replicatedLog.committedIndex() >= replicatedLog.lastIndex()
+                || message.getCmd() instanceof ClusterConfiguration) {
+                return appendClientBatch();
+            }
+            if (!clientBatchScheduled) {
+                clientBatchScheduled = true;
+                context.schedule(() -> Raft.this.apply(AppendClientBatch.INSTANCE), clientBatchDelay, TimeUnit.MICROSECONDS);
+            }
+            return stay();
+        }
+
+        @Override
+        public State handle(AppendClientBatch message) throws IOException {
+            super.handle(message);
+            return appendClientBatch();
+        }
+
+        private State appendClientBatch() throws IOException {
+            if (clientBatch.isEmpty()) {
+                return stay();
+            }
+            ImmutableList.Builder<LogEntry> builder = ImmutableList.builder();
+            long index = replicatedLog.nextIndex();
+            for (ClientMessage message : clientBatch) {
+                builder.add(new LogEntry(message.getCmd(), meta().getCurrentTerm(), index++, message.getClient()));
+            }
+            ImmutableList<LogEntry> entries = builder.build();
+            logger.debug("appending {} commands to replicated log", entries.size());
+            clientBatchEntries.record(entries.size());
+            clientBatchDelayMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - clientBatchStart));
+            clientBatch.clear();
+
+            replicatedLog.append(entries);
+            if (flushLog()) {
+                matchIndex.put(clusterDiscovery.self(), index - 1);
+            }
+            replicateEntries(meta());
+            return maybeCommitEntry(meta());
+        }
+
+        @Override
+        public State handle(FlushLog message) throws IOException {
+            super.handle(message);
+            matchIndex.putIfGreater(clusterDiscovery.self(), replicatedLog.flushedIndex());
             return maybeCommitEntry(meta());
         }
 
@@ -887,10 +1793,18 @@ public class Raft extends AbstractLifecycleComponent {
                 return gotoFollower(meta().withTerm(message.getTerm()).forFollower());
             }
             if (message.getTerm().equals(meta().getCurrentTerm())) {
-                if (nextIndex.indexFor(message.getMember()) > 0) {
-                    nextIndex.decrementFor(message.getMember());
+                if (!inflight.reject(message.getMember(), message.getPrevLogIndex())) {
+                    logger.debug("follower {} rejected write with prev index {} sent before rewind, ignore", message.getMember(), message.getPrevLogIndex());
+                    return stay();
                 }
-                logger.warn("follower {} rejected write, term {}, decrement index to {}", message.getMember(), message.getTerm(), nextIndex.indexFor(message.getMember()));
+                // batches sent after rejected one are discarded, rewind using follower hint
+                // or to entry before rejected batch
+                if (message.getConflictIndex() > 0) {
+                    nextIndex.put(message.getMember(), rewindIndex(message));
+                } else if (message.getPrevLogIndex() > 0) {
+                    nextIndex.put(message.getMember(), message.getPrevLogIndex());
+                }
+                logger.warn("follower {} rejected write, term {}, rewind index to {}", message.getMember(), message.getTerm(), nextIndex.indexFor(message.getMember()));
                 sendEntries(message.getMember(), meta());
                 return stay();
             } else {
@@ -899,6 +1813,24 @@ public class Raft extends AbstractLifecycleComponent {
             }
         }
 
+        /**
+         * If leader has entries of conflict term, follower is rewound to entry after last of them,
+         * otherwise to first follower entry of conflict term, so entries of whole term are skipped.
+         */
+        private long rewindIndex(AppendRejected message) {
+            long index = message.getConflictIndex();
+            if (message.getConflictTerm().getTerm() > 0) {
+                long last = Math.min(message.getPrevLogIndex(), replicatedLog.lastIndex());
+                while (last > 0 && replicatedLog.containsEntryAt(last) && replicatedLog.termAt(last).greater(message.getConflictTerm())) {
+                    last--;
+                }
+                if (last > 0 && replicatedLog.containsEntryAt(last) && replicatedLog.termAt(last).equals(message.getConflictTerm())) {
+                    index = last + 1;
+                }
+            }
+            return Math.max(1, Math.min(index, replicatedLog.nextIndex()));
+        }
+
         @Override
         public State handle(AppendSuccessful message) throws IOException {
             RaftMetadata meta = meta();
@@ -908,12 +1840,14 @@ public class Raft extends AbstractLifecycleComponent {
             if (message.getTerm().equals(meta.getCurrentTerm())) {
                 logger.debug("received append successful {} in term: {}", message, meta.getCurrentTerm());
                 assert (message.getLastIndex() <= replicatedLog.lastIndex());
-                if (message.getLastIndex() > 0) {
-                    nextIndex.put(message.getMember(), message.getLastIndex() + 1);
-                }
+                // next index is advanced on send, response may acknowledge only part of sent batches
+                nextIndex.putIfGreater(message.getMember(), message.getLastIndex() + 1);
                 matchIndex.putIfGreater(message.getMember(), message.getLastIndex());
-                replicationIndex = Immutable.replace(replicationIndex, message.getMember(), 0L);
-                maybeSendEntries(message.getMember(), meta);
+                inflight.acknowledge(message.getMember(), message.getLastIndex());
+                if (inflight.countFor(message.getMember()) == 0) {
+                    replicationIndex.put(message.getMember(), 0);
+                }
+                pipelineEntries(message.getMember(), meta);
                 return maybeCommitEntry(meta);
             } else {
                 logger.warn("unexpected append successful: {} in term:{}", message, meta.getCurrentTerm());
@@ -938,6 +1872,25 @@ public class Raft extends AbstractLifecycleComponent {
             }
         }
 
+        @Override
+        public State handle(InstallSnapshotProgress message) throws IOException {
+            if (message.getTerm().greater(meta().getCurrentTerm())) {
+                return gotoFollower(meta().withTerm(message.getTerm()).forFollower());
+            }
+            if (message.getTerm().equals(meta().getCurrentTerm())) {
+                logger.debug("received install snapshot progress {}", message);
+                boolean current = replicatedLog.hasSnapshot() &&
+                    persistentService.snapshotFile().meta().getLastIncludedIndex() == message.getLastIncludedIndex();
+                snapshotOffset = Immutable.replace(snapshotOffset, message.getMember(), current ? message.getOffset() : 0L);
+                replicationIndex.put(message.getMember(), 0);
+                sendEntries(message.getMember(), meta());
+                return stay();
+            } else {
+                logger.warn("unexpected install snapshot progress: {} in term:{}", message, meta().getCurrentTerm());
+                return stay();
+            }
+        }
+
         @Override
         public State handle(InstallSnapshotSuccessful message) throws IOException {
             if (message.getTerm().greater(meta().getCurrentTerm())) {
@@ -945,6 +1898,7 @@ public class Raft extends AbstractLifecycleComponent {
             }
             if (message.getTerm().equals(meta().getCurrentTerm())) {
                 logger.info("received install snapshot successful[{}], last index[{}]", message.getLastIndex(), replicatedLog.lastIndex());
+                snapshotOffset = Immutable.subtract(snapshotOffset, message.getMember());
                 assert (message.getLastIndex() <= replicatedLog.lastIndex());
                 if (message.getLastIndex() > 0) {
                     nextIndex.put(message.getMember(), message.getLastIndex() + 1);
@@ -964,6 +1918,7 @@ public class Raft extends AbstractLifecycleComponent {
                 return gotoFollower(meta().withTerm(message.getTerm()).forFollower());
             } else if (message.getTerm().equals(meta().getCurrentTerm())) {
                 logger.info("follower {} rejected write: {}, back out the first index in this term and retry", message.getMember(), message.getTerm());
+                inflight.reset(message.getMember());
                 if (nextIndex.indexFor(message.getMember()) > 1) {
                     nextIndex.decrementFor(message.getMember());
                 }
@@ -1033,33 +1988,46 @@ public class Raft extends AbstractLifecycleComponent {
             long timeout = System.currentTimeMillis() - heartbeat;
             for (DiscoveryNode member : meta.membersWithout(clusterDiscovery.self())) {
                 // check heartbeat response timeout for prevent re-send heartbeat
-                if (replicationIndex.getOrDefault(member, 0L) < timeout) {
+                if (replicationIndex.indexFor(member) < timeout) {
+                    if (inflight.countFor(member) > 0) {
+                        // response is not received in time, batches are considered lost
+                        logger.warn("follower {} does not respond to {} batches, probe from index {}", member, inflight.countFor(member), nextIndex.indexFor(member));
+                        inflight.reset(member);
+                    }
                     sendEntries(member, meta);
                 }
             }
         }
 
-        private void maybeSendEntries(DiscoveryNode follower, RaftMetadata meta) throws IOException {
-            // check heartbeat response timeout for prevent re-send heartbeat
-            long timeout = System.currentTimeMillis() - heartbeat;
-            if (replicationIndex.getOrDefault(follower, 0L) < timeout) {
-                // if member is already append prev entries,
-                // their next index must be equal to last index in log
-                if (nextIndex.indexFor(follower) == replicatedLog.lastIndex()) {
-                    sendEntries(follower, meta);
-                }
+        private void replicateEntries(RaftMetadata meta) throws IOException {
+            for (DiscoveryNode member : meta.membersWithout(clusterDiscovery.self())) {
+                pipelineEntries(member, meta);
+            }
+        }
+
+        private void pipelineEntries(DiscoveryNode follower, RaftMetadata meta) throws IOException {
+            // if member is behind, send next batches without waiting for response
+            // of previous ones, snapshot chunks are sent one by one on progress response
+            while (inflight.canSend(follower)
+                && nextIndex.indexFor(follower) <= replicatedLog.lastIndex()
+                && !isSnapshotRequired(follower)) {
+                sendEntries(follower, meta);
             }
         }
 
+        private boolean isSnapshotRequired(DiscoveryNode follower) {
+            return replicatedLog.hasSnapshot() &&
+                persistentService.snapshotFile().meta().getLastIncludedIndex() >= nextIndex.indexFor(follower);
+        }
+
         private void sendEntries(DiscoveryNode follower, RaftMetadata meta) throws IOException {
-            replicationIndex = Immutable.replace(replicationIndex, follower, System.currentTimeMillis());
+            replicationIndex.put(follower, System.currentTimeMillis());
             long lastIndex = nextIndex.indexFor(follower);
 
             if (replicatedLog.hasSnapshot()) {
-                RaftSnapshot snapshot = replicatedLog.snapshot();
-                if (snapshot.getMeta().getLastIncludedIndex() >= lastIndex) {
-                    logger.info("send install snapshot to {} in term {}", follower, meta.getCurrentTerm());
-                    send(follower, new InstallSnapshot(clusterDiscovery.self(), meta.getCurrentTerm(), snapshot));
+                SnapshotFile snapshot = persistentService.snapshotFile();
+                if (snapshot.meta().getLastIncludedIndex() >= lastIndex) {
+                    sendSnapshotChunk(follower, meta, snapshot);
                     return;
                 }
             }
@@ -1067,7 +2035,7 @@ public class Raft extends AbstractLifecycleComponent {
             if (lastIndex > replicatedLog.nextIndex()) {
                 throw new Error("Unexpected from index " + lastIndex + " > " + replicatedLog.nextIndex());
             } else {
-                ImmutableList<LogEntry> entries = replicatedLog.entriesBatchFrom(lastIndex, 1000);
+                ImmutableList<LogEntry> entries = replicatedLog.entriesBatchFrom(lastIndex, appendBatchMaxEntries, appendBatchMaxSize);
                 long prevIndex = Math.max(0, lastIndex - 1);
                 Term prevTerm = replicatedLog.termAt(prevIndex);
                 logger.info("send to {} append entries {} prev {}:{} in {} from index:{}", follower, entries.size(), prevTerm, prevIndex, meta.getCurrentTerm(), lastIndex);
@@ -1076,36 +2044,51 @@ public class Raft extends AbstractLifecycleComponent {
                     entries,
                     replicatedLog.committedIndex());
                 send(follower, append);
+                // optimistically assume batch is appended, index is rewound on reject
+                inflight.sent(follower, prevIndex, prevIndex + entries.size());
+                nextIndex.put(follower, prevIndex + entries.size() + 1);
+            }
+        }
+
+        private void sendSnapshotChunk(DiscoveryNode follower, RaftMetadata meta, SnapshotFile file) throws IOException {
+            long offset = snapshotOffset.getOrDefault(follower, 0L);
+            if (offset > file.length()) {
+                // offset of previous snapshot
+                offset = 0;
             }
+            FileRegion chunk = file.region(offset, snapshotChunkSize);
+            boolean done = offset + chunk.count() == file.length();
+            logger.info("send install snapshot chunk to {} in term {} offset {} of {}", follower, meta.getCurrentTerm(), offset, file.length());
+            send(follower, new InstallSnapshot(clusterDiscovery.self(), meta.getCurrentTerm(), file.meta(), offset, chunk, done));
         }
 
         private State maybeCommitEntry(RaftMetadata meta) throws IOException {
             long indexOnMajority;
             while ((indexOnMajority = matchIndex.consensusForIndex(meta.getConfig())) > replicatedLog.committedIndex()) {
                 logger.debug("index of majority: {}", indexOnMajority);
-                replicatedLog.slice(replicatedLog.committedIndex(), indexOnMajority);
+                // batch may end at entry of previous term, it is committed only
+                // by entry of current term replicated on majority (5.4.2)
+                if (!replicatedLog.termAt(indexOnMajority).equals(meta.getCurrentTerm())) {
+                    break;
+                }
                 ImmutableList<LogEntry> entries = replicatedLog.slice(replicatedLog.committedIndex() + 1, indexOnMajority);
-                for (LogEntry entry : entries) {
+                for (int i = 0; i < entries.size(); i++) {
+                    LogEntry entry = entries.get(i);
                     logger.debug("committing log at index: {}", entry.getIndex());
                     replicatedLog.commit(entry.getIndex());
-                    if (entry.getCommand() instanceof StableClusterConfiguration) {
+                    if (entry.isCommand(StableClusterConfiguration.class)) {
                         StableClusterConfiguration config = (StableClusterConfiguration) entry.getCommand();
                         logger.info("apply new configuration, old: {}, new: {}", meta.getConfig(), config);
                         meta = meta.withConfig(config);
                         if (!meta.getConfig().containsOnNewState(clusterDiscovery.self())) {
+                            applyCommitted(entries.subList(0, i + 1), true);
                             return gotoFollower(meta.forFollower());
                         }
-                    } else if (entry.getCommand() instanceof Noop) {
-                        logger.trace("ignore noop entry");
-                    } else {
-                        logger.debug("applying command[index={}]: {}, will send result to client: {}", entry.getIndex(), entry.getCommand().getClass(), entry.getClient());
-                        Streamable result = resourceFSM.apply(entry.getCommand());
-                        if (result != null) {
-                            send(entry.getClient(), result);
-                        }
                     }
                 }
+                applyCommitted(entries, true);
             }
+            maybeStartReadRound(meta, false);
             return stay(meta);
         }
 
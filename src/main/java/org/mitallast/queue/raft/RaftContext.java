@@ -1,13 +1,40 @@
 package org.mitallast.queue.raft;
 
-import org.mitallast.queue.common.stream.Streamable;
+import io.netty.util.Timeout;
 
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 public interface RaftContext {
 
-    ScheduledFuture schedule(Runnable task, long timeout, TimeUnit timeUnit);
+    /**
+     * Execute task in raft thread, tasks are executed one by one in submission order.
+     * Caller is never blocked.
+     *
+     * @return false if task queue is full and task is rejected
+     */
+    boolean execute(Runnable task);
 
-    ScheduledFuture scheduleAtFixedRate(Runnable task, long delay, long timeout, TimeUnit timeUnit);
+    /**
+     * Execute task in FSM applier thread, tasks are executed one by one in submission order.
+     * Caller is blocked while applier queue is full.
+     */
+    void executeFSM(Runnable task);
+
+    /**
+     * Execute blocking log I/O task in log thread, tasks are executed one by one in submission order.
+     * Caller is never blocked.
+     *
+     * @return false if task queue is full and task is rejected
+     */
+    boolean executeIO(Runnable task);
+
+    /**
+     * Execute task in timer thread once after timeout, task should only enqueue work to event loop.
+     */
+    Timeout schedule(Runnable task, long timeout, TimeUnit timeUnit);
+
+    /**
+     * Execute task in timer thread periodically until returned timeout is cancelled.
+     */
+    Timeout scheduleAtFixedRate(Runnable task, long delay, long timeout, TimeUnit timeUnit);
 }
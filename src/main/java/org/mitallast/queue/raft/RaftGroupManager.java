@@ -0,0 +1,135 @@
+package org.mitallast.queue.raft;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Inject;
+import com.typesafe.config.Config;
+import org.mitallast.queue.common.Immutable;
+import org.mitallast.queue.common.component.AbstractLifecycleComponent;
+import org.mitallast.queue.common.file.FileService;
+import org.mitallast.queue.common.stream.StreamService;
+import org.mitallast.queue.raft.discovery.ClusterDiscovery;
+import org.mitallast.queue.raft.persistent.FilePersistentService;
+import org.mitallast.queue.raft.protocol.RaftGroupMessage;
+import org.mitallast.queue.transport.TransportController;
+import org.mitallast.queue.transport.TransportService;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Hosts independent raft groups on node, so leadership and write load of groups are spread across cluster.
+ * <p>
+ * Each group has own log, state, snapshot and FSM, stored in {@code raft-group/<group>} directory. Groups
+ * share transport connections, raft event loop, timer and log writer thread of {@link RaftContext}.
+ * Protocol messages of group are wrapped in {@link RaftGroupMessage} and dispatched to group by id.
+ */
+public class RaftGroupManager extends AbstractLifecycleComponent {
+
+    private final Config rootConfig;
+    private final TransportService transportService;
+    private final TransportController transportController;
+    private final ClusterDiscovery clusterDiscovery;
+    private final FileService fileService;
+    private final StreamService streamService;
+    private final RaftContext context;
+
+    private volatile ImmutableMap<String, Raft> groups = ImmutableMap.of();
+
+    @Inject
+    public RaftGroupManager(
+        Config config,
+        TransportService transportService,
+        TransportController transportController,
+        ClusterDiscovery clusterDiscovery,
+        FileService fileService,
+        StreamService streamService,
+        RaftContext context
+    ) {
+        super(config.getConfig("raft"), RaftGroupManager.class);
+        this.rootConfig = config;
+        this.transportService = transportService;
+        this.transportController = transportController;
+        this.clusterDiscovery = clusterDiscovery;
+        this.fileService = fileService;
+        this.streamService = streamService;
+        this.context = context;
+
+        transportController.registerMessageHandler(RaftGroupMessage.class, this::dispatch);
+    }
+
+    /**
+     * Open group log and start group raft, group is started with manager if created before.
+     */
+    public synchronized Raft create(String group, ResourceFSM resourceFSM) throws IOException {
+        Preconditions.checkArgument(group.matches("[a-zA-Z0-9_\\-]+"), "invalid group id: %s", group);
+        Preconditions.checkArgument(!groups.containsKey(group), "group already exists: %s", group);
+        FilePersistentService persistentService = new FilePersistentService(rootConfig, fileService, streamService, "raft-group/" + group);
+        Raft raft = new Raft(
+            rootConfig,
+            transportService,
+            transportController,
+            clusterDiscovery,
+            persistentService,
+            resourceFSM,
+            context,
+            Optional.of(group)
+        );
+        groups = Immutable.compose(groups, group, raft);
+        if (lifecycle().started()) {
+            raft.start();
+        }
+        logger.info("created group {}", group);
+        return raft;
+    }
+
+    /**
+     * Stop and close group raft, group log is kept on disk.
+     */
+    public synchronized void remove(String group) throws IOException {
+        Raft raft = groups.get(group);
+        if (raft != null) {
+            groups = Immutable.subtract(groups, group);
+            raft.close();
+            logger.info("removed group {}", group);
+        }
+    }
+
+    public Optional<Raft> group(String group) {
+        return Optional.ofNullable(groups.get(group));
+    }
+
+    public ImmutableMap<String, Raft> groups() {
+        return groups;
+    }
+
+    private void dispatch(RaftGroupMessage message) {
+        Raft raft = groups.get(message.getGroup());
+        if (raft != null) {
+            raft.apply(message.getMessage());
+        } else {
+            logger.debug("group not found, ignore {}", message);
+        }
+    }
+
+    @Override
+    protected synchronized void doStart() throws IOException {
+        for (Raft raft : groups.values()) {
+            raft.start();
+        }
+    }
+
+    @Override
+    protected synchronized void doStop() throws IOException {
+        for (Raft raft : groups.values()) {
+            raft.stop();
+        }
+    }
+
+    @Override
+    protected synchronized void doClose() throws IOException {
+        for (Raft raft : groups.values()) {
+            raft.close();
+        }
+    }
+}
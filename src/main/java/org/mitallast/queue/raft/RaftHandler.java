@@ -16,6 +16,10 @@ public class RaftHandler extends AbstractComponent {
         transportController.registerMessageHandler(AppendEntries.class, raft::apply);
         transportController.registerMessageHandler(AppendRejected.class, raft::apply);
         transportController.registerMessageHandler(AppendSuccessful.class, raft::apply);
+        transportController.registerMessageHandler(ReadHeartbeat.class, raft::apply);
+        transportController.registerMessageHandler(ReadHeartbeatResponse.class, raft::apply);
+        transportController.registerMessageHandler(ReadIndexRequest.class, raft::apply);
+        transportController.registerMessageHandler(ReadIndexResponse.class, raft::apply);
 
         transportController.registerMessageHandler(AddServer.class, raft::apply);
         transportController.registerMessageHandler(AddServerResponse.class, raft::apply);
@@ -23,8 +27,10 @@ public class RaftHandler extends AbstractComponent {
         transportController.registerMessageHandler(RemoveServerResponse.class, raft::apply);
 
         transportController.registerMessageHandler(ClientMessage.class, raft::apply);
+        transportController.registerMessageHandler(ClientReadMessage.class, raft::apply);
 
         transportController.registerMessageHandler(InstallSnapshot.class, raft::apply);
+        transportController.registerMessageHandler(InstallSnapshotProgress.class, raft::apply);
         transportController.registerMessageHandler(InstallSnapshotRejected.class, raft::apply);
         transportController.registerMessageHandler(InstallSnapshotSuccessful.class, raft::apply);
 
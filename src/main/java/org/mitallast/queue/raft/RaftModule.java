@@ -15,6 +15,7 @@ public class RaftModule extends AbstractModule {
     protected void configure() {
         bind(Raft.class).asEagerSingleton();
         bind(RaftHandler.class).asEagerSingleton();
+        bind(RaftGroupManager.class).asEagerSingleton();
         bind(DefaultRaftContext.class).asEagerSingleton();
         bind(FilePersistentService.class).asEagerSingleton();
 
@@ -28,8 +29,13 @@ public class RaftModule extends AbstractModule {
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(AppendEntries.class, AppendEntries::new, 200));
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(AppendRejected.class, AppendRejected::new, 201));
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(AppendSuccessful.class, AppendSuccessful::new, 202));
+        streamableBinder.addBinding().toInstance(StreamableRegistry.of(ReadHeartbeat.class, ReadHeartbeat::new, 203));
+        streamableBinder.addBinding().toInstance(StreamableRegistry.of(ReadHeartbeatResponse.class, ReadHeartbeatResponse::new, 204));
+        streamableBinder.addBinding().toInstance(StreamableRegistry.of(ReadIndexRequest.class, ReadIndexRequest::new, 205));
+        streamableBinder.addBinding().toInstance(StreamableRegistry.of(ReadIndexResponse.class, ReadIndexResponse::new, 206));
 
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(ClientMessage.class, ClientMessage::new, 210));
+        streamableBinder.addBinding().toInstance(StreamableRegistry.of(ClientReadMessage.class, ClientReadMessage::new, 211));
 
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(ElectionTimeout.class, ElectionTimeout::read, 220));
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(BeginElection.class, BeginElection::read, 221));
@@ -41,6 +47,8 @@ public class RaftModule extends AbstractModule {
 
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(LogEntry.class, LogEntry::new, 230));
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(Noop.class, Noop::read, 231));
+        streamableBinder.addBinding().toInstance(StreamableRegistry.of(FlushLog.class, FlushLog::read, 232));
+        streamableBinder.addBinding().toInstance(StreamableRegistry.of(AppendClientBatch.class, AppendClientBatch::read, 233));
 
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(RaftSnapshot.class, RaftSnapshot::new, 240));
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(RaftSnapshotMetadata.class, RaftSnapshotMetadata::new, 241));
@@ -49,6 +57,7 @@ public class RaftModule extends AbstractModule {
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(InstallSnapshot.class, InstallSnapshot::new, 261));
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(InstallSnapshotRejected.class, InstallSnapshotRejected::new, 262));
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(InstallSnapshotSuccessful.class, InstallSnapshotSuccessful::new, 263));
+        streamableBinder.addBinding().toInstance(StreamableRegistry.of(InstallSnapshotProgress.class, InstallSnapshotProgress::new, 264));
 
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(JointConsensusClusterConfiguration.class, JointConsensusClusterConfiguration::new, 270));
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(StableClusterConfiguration.class, StableClusterConfiguration::new, 271));
@@ -57,5 +66,7 @@ public class RaftModule extends AbstractModule {
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(AddServerResponse.class, AddServerResponse::new, 281));
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(RemoveServer.class, RemoveServer::new, 282));
         streamableBinder.addBinding().toInstance(StreamableRegistry.of(RemoveServerResponse.class, RemoveServerResponse::new, 283));
+
+        streamableBinder.addBinding().toInstance(StreamableRegistry.of(RaftGroupMessage.class, RaftGroupMessage::new, 250));
     }
 }
@@ -0,0 +1,148 @@
+package org.mitallast.queue.raft.persistent;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded off-heap LRU cache of encoded log entries, keyed by entry index.
+ * <p>
+ * Entries are cached on append and on read, so leader serves catch-up of lagging follower
+ * from recently appended entries without touching segment files. Cached payload is a copy
+ * in direct buffer, total size of cached payloads is limited by byte budget and least
+ * recently used entries are evicted first. Zero budget disables cache.
+ */
+public class EntryCache implements Closeable {
+    private final long capacity;
+    private final LinkedHashMap<Long, ByteBuf> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public EntryCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return read only view of cached payload, or null if entry is not cached
+     */
+    public ByteBuf get(long index) {
+        ByteBuf payload = entries.get(index);
+        if (payload == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return payload.duplicate();
+    }
+
+    /**
+     * Cache copy of encoded entry payload, replacing previously cached entry with same index.
+     */
+    public void put(long index, ByteBuf payload) {
+        int length = payload.readableBytes();
+        if (length > capacity) {
+            remove(index);
+            return;
+        }
+        ByteBuf copy = PooledByteBufAllocator.DEFAULT.directBuffer(length, length);
+        copy.writeBytes(payload, payload.readerIndex(), length);
+        ByteBuf prev = entries.put(index, copy);
+        if (prev != null) {
+            size -= prev.readableBytes();
+            prev.release();
+        }
+        size += length;
+        Iterator<ByteBuf> iterator = entries.values().iterator();
+        while (size > capacity && iterator.hasNext()) {
+            ByteBuf eldest = iterator.next();
+            iterator.remove();
+            size -= eldest.readableBytes();
+            eldest.release();
+            evictions++;
+        }
+    }
+
+    private void remove(long index) {
+        ByteBuf prev = entries.remove(index);
+        if (prev != null) {
+            size -= prev.readableBytes();
+            prev.release();
+        }
+    }
+
+    /**
+     * Invalidate entries with index greater or equal than requested, used on log truncate.
+     */
+    public void removeFrom(long index) {
+        removeIf(index, Long.MAX_VALUE);
+    }
+
+    /**
+     * Invalidate entries with index less or equal than requested, used on log compaction.
+     */
+    public void removeUntil(long index) {
+        removeIf(Long.MIN_VALUE, index);
+    }
+
+    private void removeIf(long from, long until) {
+        Iterator<Map.Entry<Long, ByteBuf>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, ByteBuf> entry = iterator.next();
+            if (entry.getKey() >= from && entry.getKey() <= until) {
+                iterator.remove();
+                size -= entry.getValue().readableBytes();
+                entry.getValue().release();
+            }
+        }
+    }
+
+    public int count() {
+        return entries.size();
+    }
+
+    /**
+     * @return total size in bytes of cached payloads
+     */
+    public long size() {
+        return size;
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public long evictions() {
+        return evictions;
+    }
+
+    @Override
+    public void close() {
+        for (ByteBuf payload : entries.values()) {
+            payload.release();
+        }
+        entries.clear();
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "EntryCache{" +
+            "count=" + entries.size() +
+            ", size=" + size +
+            ", capacity=" + capacity +
+            ", hits=" + hits +
+            ", misses=" + misses +
+            '}';
+    }
+}
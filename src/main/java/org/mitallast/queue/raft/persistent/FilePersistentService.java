@@ -3,21 +3,32 @@ package org.mitallast.queue.raft.persistent;
 import com.google.common.collect.ImmutableList;
 import com.google.inject.Inject;
 import com.typesafe.config.Config;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import org.mitallast.queue.common.component.AbstractComponent;
 import org.mitallast.queue.common.file.FileService;
 import org.mitallast.queue.common.stream.StreamInput;
 import org.mitallast.queue.common.stream.StreamOutput;
 import org.mitallast.queue.common.stream.StreamService;
+import org.mitallast.queue.common.stream.Streamable;
 import org.mitallast.queue.raft.Term;
 import org.mitallast.queue.raft.protocol.LogEntry;
 import org.mitallast.queue.raft.protocol.RaftSnapshot;
+import org.mitallast.queue.raft.protocol.RaftSnapshotMetadata;
 import org.mitallast.queue.transport.DiscoveryNode;
 
 import java.io.*;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.LongSummaryStatistics;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
 
 public class FilePersistentService extends AbstractComponent implements PersistentService {
 
@@ -26,18 +37,38 @@ public class FilePersistentService extends AbstractComponent implements Persiste
 
     private final FileService fileService;
     private final StreamService streamService;
+    private final String service;
     private final File stateFile;
+    private final int segmentSize;
+    private final int indexInterval;
+    private final long cacheSize;
+    private final int recoveryParallelism;
+    private final boolean preallocate;
 
     private long segment;
     private Term currentTerm;
     private Optional<DiscoveryNode> votedFor;
+    private SnapshotStore snapshotStore;
 
     @Inject
     public FilePersistentService(Config config, FileService fileService, StreamService streamService) throws IOException {
+        this(config, fileService, streamService, "raft");
+    }
+
+    /**
+     * @param service directory of log, state and snapshot files, relative to node path
+     */
+    public FilePersistentService(Config config, FileService fileService, StreamService streamService, String service) throws IOException {
         super(config, PersistentService.class);
         this.fileService = fileService;
         this.streamService = streamService;
-        this.stateFile = fileService.resource("raft", "state.bin");
+        this.service = service;
+        this.stateFile = fileService.resource(service, "state.bin");
+        this.segmentSize = (int) this.config.getBytes("raft.log.segment-size").longValue();
+        this.indexInterval = (int) this.config.getBytes("raft.log.index-interval").longValue();
+        this.cacheSize = this.config.getBytes("raft.log.cache-size");
+        this.recoveryParallelism = this.config.getInt("raft.log.recovery-parallelism");
+        this.preallocate = this.config.getBoolean("raft.log.preallocate");
         readState();
     }
 
@@ -103,71 +134,308 @@ public class FilePersistentService extends AbstractComponent implements Persiste
     @Override
     public ReplicatedLog openLog() throws IOException {
         logger.info("open log: segment={}", segment);
-        final File segmentFile = segmentFile(segment);
-        ArrayList<LogEntry> entries = new ArrayList<>();
-        try (StreamInput input = streamService.input(segmentFile)) {
-            while (input.available() > 0) {
-                entries.add(input.readStreamable(LogEntry::new));
-            }
-        }
-        BufferedOutputStream buffered = new BufferedOutputStream(new FileOutputStream(segmentFile, true), 65536);
-        StreamOutput segmentOutput = streamService.output(buffered);
-        return new FileReplicatedLog(
-            segmentFile,
-            buffered,
-            segmentOutput,
-            entries,
-            initialCommittedIndex,
-            segment
-        );
+        snapshotStore = new SnapshotStore(fileService, streamService, service);
+        if (!snapshotStore.isEmpty()) {
+            logger.info("open snapshot {}", snapshotStore.current());
+        }
+        File[] files = fileService.service(service).listFiles((dir, name) -> name.endsWith(".log"));
+        long[] starts = files == null ? new long[0] : Arrays.stream(files)
+            .map(file -> file.getName().substring(0, file.getName().length() - ".log".length()))
+            .filter(name -> name.chars().allMatch(Character::isDigit))
+            .mapToLong(Long::parseLong)
+            .sorted()
+            .toArray();
+
+        for (long start : starts) {
+            if (start < segment) {
+                logger.info("delete stale segment {}", start);
+                Files.deleteIfExists(segmentFile(start).toPath());
+                Files.deleteIfExists(indexFile(start).toPath());
+            }
+        }
+
+        long started = System.nanoTime();
+        ArrayList<Segment> segments = new ArrayList<>();
+        for (Segment opened : openSegments(Arrays.stream(starts).filter(start -> start >= segment).toArray())) {
+            if (!segments.isEmpty()) {
+                Segment prev = segments.get(segments.size() - 1);
+                if (opened.isEmpty() || prev.isEmpty() || opened.firstIndex() != prev.lastIndex() + 1) {
+                    logger.warn("delete segment {} does not continue {}", opened, prev);
+                    opened.delete();
+                    continue;
+                }
+            }
+            if (opened.discarded() > 0) {
+                logger.warn("discard torn tail of segment {}", opened);
+            }
+            logger.info("open segment {}", opened);
+            segments.add(opened);
+        }
+        if (segments.isEmpty() || segments.get(0).start() != segment) {
+            for (Segment stale : segments) {
+                stale.delete();
+            }
+            segments.clear();
+            segments.add(Segment.create(streamService, segmentFile(segment), indexFile(segment), segment, segmentSize, indexInterval, preallocate));
+        }
+        logger.info("recovered {} segments in {}ms", segments.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        return new FileReplicatedLog(segments, snapshotStore, initialCommittedIndex);
+    }
+
+    /**
+     * Open segments in parallel: each segment is scanned and indexed independently,
+     * commands are not decoded. Segments are returned in order of starts.
+     */
+    private List<Segment> openSegments(long[] starts) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(recoveryParallelism, starts.length)));
+        try {
+            ArrayList<ForkJoinTask<Segment>> tasks = new ArrayList<>(starts.length);
+            for (long start : starts) {
+                File file = segmentFile(start);
+                File indexFile = indexFile(start);
+                tasks.add(pool.submit(() -> Segment.open(streamService, file, indexFile, start, segmentSize, indexInterval)));
+            }
+            ArrayList<Segment> opened = new ArrayList<>(starts.length);
+            IOException error = null;
+            for (ForkJoinTask<Segment> task : tasks) {
+                try {
+                    opened.add(task.get());
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        error = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    if (error == null) {
+                        error = new InterruptedIOException();
+                    }
+                }
+            }
+            if (error != null) {
+                for (Segment segment : opened) {
+                    segment.close();
+                }
+                throw error;
+            }
+            return opened;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Override
+    public SnapshotFile snapshotFile() {
+        return snapshotStore.current();
+    }
+
+    @Override
+    public SnapshotFile writeSnapshot(RaftSnapshot snapshot) throws IOException {
+        return snapshotStore.prepare(snapshot);
+    }
+
+    @Override
+    public SnapshotFile receiveSnapshot(RaftSnapshotMetadata meta) throws IOException {
+        SnapshotFile file = snapshotStore.receive(meta);
+        logger.debug("receive snapshot file {}, resume from {}", file, file.length());
+        return file;
     }
 
     private File segmentFile(long segment) throws IOException {
-        return fileService.resource("raft", segment + ".log");
+        return fileService.resource(service, segment + ".log");
     }
 
-    private File temporaryFile() throws IOException {
-        return fileService.temporary("raft", "log.", ".tmp");
+    private File indexFile(long segment) throws IOException {
+        return fileService.resource(service, segment + ".index");
     }
 
-    public class FileReplicatedLog implements ReplicatedLog {
-        private final ArrayList<LogEntry> entries;
-        private boolean dirty = false;
-        private long start;
+    private static class FileFlush implements ReplicatedLog.Flush {
+        private final ArrayList<Segment> segments;
+        private final long index;
+        private final long truncations;
+
+        private FileFlush(ArrayList<Segment> segments, long index, long truncations) {
+            this.segments = segments;
+            this.index = index;
+            this.truncations = truncations;
+        }
 
-        private File segmentFile;
-        private BufferedOutputStream buffered;
-        private StreamOutput segmentOutput;
+        @Override
+        public long index() {
+            return index;
+        }
+
+        @Override
+        public void force() {
+            for (Segment segment : segments) {
+                segment.force();
+            }
+        }
+    }
+
+    public class FileReplicatedLog implements ReplicatedLog {
+        private final ArrayList<Segment> segments;
+        private final SnapshotStore snapshotStore;
+        private final ByteBuf record = Unpooled.buffer(4096);
+        private final LinkedHashSet<Segment> dirty = new LinkedHashSet<>();
+        private final EntryCache cache = new EntryCache(cacheSize);
+        private final LongSummaryStatistics flushStatistics = new LongSummaryStatistics();
+        private final LongSummaryStatistics compactionStatistics = new LongSummaryStatistics();
+        private long compactionReclaimed;
 
         private long committedIndex;
+        private long flushedIndex;
+        private long truncations;
+        private FileFlush flushing;
 
-        public FileReplicatedLog(File segmentFile, BufferedOutputStream buffered, StreamOutput segmentOutput, ArrayList<LogEntry> entries, long committedIndex, long start) throws IOException {
-            this.entries = entries;
+        public FileReplicatedLog(ArrayList<Segment> segments, SnapshotStore snapshotStore, long committedIndex) throws IOException {
+            this.segments = segments;
+            this.snapshotStore = snapshotStore;
             this.committedIndex = committedIndex;
-            this.start = start;
-            this.segmentFile = segmentFile;
-            this.buffered = buffered;
-            this.segmentOutput = segmentOutput;
+            if (!snapshotStore.isEmpty()) {
+                // segments covered by snapshot may be not removed yet on crash
+                removeCovered();
+            }
+            this.flushedIndex = isEmpty() ? 0 : lastIndex();
+        }
+
+        /**
+         * @return index of first entry, snapshot index if log is compacted
+         */
+        private long start() {
+            return hasSnapshot() ? snapshotIndex() : segments.get(0).start();
+        }
+
+        private long snapshotIndex() {
+            return snapshotStore.meta().getLastIncludedIndex();
+        }
+
+        private Segment last() {
+            return segments.get(segments.size() - 1);
+        }
+
+        /**
+         * @return segment which may contain entry at index, or null
+         */
+        private Segment segment(long index) {
+            for (int i = segments.size() - 1; i >= 0; i--) {
+                Segment segment = segments.get(i);
+                if (!segment.isEmpty() && segment.firstIndex() <= index) {
+                    return segment;
+                }
+            }
+            return null;
+        }
+
+        private ByteBuf encode(LogEntry entry) throws IOException {
+            record.clear();
+            record.writeZero(Segment.FRAME_SIZE);
+            try (StreamOutput output = streamService.output(record)) {
+                output.writeStreamable(entry);
+            }
+            Segment.frame(record);
+            return record;
+        }
+
+        /**
+         * Decode entry from cache, or from segment on cache miss.
+         */
+        private LogEntry read(Segment segment, int position) {
+            long index = segment.indexAt(position);
+            ByteBuf payload = cache.get(index);
+            if (payload == null) {
+                payload = segment.payload(position);
+                cache.put(index, payload);
+            }
+            try (StreamInput input = streamService.input(payload)) {
+                return input.readStreamable(LogEntry::new);
+            } catch (IOException e) {
+                throw new IOError(e);
+            }
+        }
+
+        /**
+         * Snapshot as a log entry at snapshot index. Entry keeps only snapshot metadata read from
+         * snapshot store, snapshot data is decoded by {@link #snapshot()} where it is installed.
+         */
+        private LogEntry snapshotEntry() {
+            return new RaftSnapshot(snapshotStore.meta(), null).toEntry(snapshotStore.node());
+        }
+
+        private Segment createSegment(long start, int size) throws IOException {
+            Segment created = Segment.create(streamService, segmentFile(start), indexFile(start), start, size, indexInterval, preallocate);
+            logger.debug("create segment {}", created);
+            return created;
+        }
+
+        private void write(ByteBuf record, long index) throws IOException {
+            if (!last().append(record)) {
+                int size = Math.max(segmentSize, record.readableBytes());
+                if (last().isEmpty()) {
+                    Segment empty = segments.remove(segments.size() - 1);
+                    dirty.remove(empty);
+                    empty.delete();
+                    segments.add(createSegment(empty.start(), size));
+                } else {
+                    segments.add(createSegment(index, size));
+                }
+                last().append(record);
+            }
+            dirty.add(last());
+            cache.put(index, record.slice(record.readerIndex() + Segment.FRAME_SIZE, record.readableBytes() - Segment.FRAME_SIZE));
         }
 
         @Override
         public boolean isEmpty() {
-            return entries.isEmpty();
+            return !hasSnapshot() && segments.size() == 1 && last().isEmpty();
         }
 
         @Override
         public boolean contains(LogEntry entry) {
-            return entries.contains(entry);
+            if (entry.getIndex() < start()) {
+                return false;
+            }
+            if (hasSnapshot() && entry.getIndex() == snapshotIndex()) {
+                return snapshotEntry().equals(entry);
+            }
+            Segment segment = segment(entry.getIndex());
+            if (segment == null) {
+                return false;
+            }
+            int position = segment.find(entry.getIndex());
+            return position >= 0 && read(segment, position).equals(entry);
         }
 
         @Override
         public ImmutableList<LogEntry> entries() {
-            return ImmutableList.copyOf(entries);
+            return slice(start(), Long.MAX_VALUE);
+        }
+
+        @Override
+        public Optional<LogEntry> lastEntryOf(Class<? extends Streamable> commandClass) {
+            // snapshot entry is not a command entry
+            long from = hasSnapshot() ? snapshotIndex() + 1 : start();
+            for (int i = segments.size() - 1; i >= 0; i--) {
+                Segment segment = segments.get(i);
+                int position = segment.findLast(pos -> {
+                    try {
+                        return segment.indexAt(pos) >= from && commandClass.isAssignableFrom(segment.commandClass(pos));
+                    } catch (IOException e) {
+                        throw new IOError(e);
+                    }
+                });
+                if (position >= 0) {
+                    return Optional.of(read(segment, position));
+                }
+                if (!segment.isEmpty() && segment.firstIndex() <= from) {
+                    break;
+                }
+            }
+            return Optional.empty();
         }
 
         @Override
         public int committedEntries() {
-            return (int) (committedIndex - start + 1);
+            return (int) (committedIndex - start() + 1);
         }
 
         @Override
@@ -175,36 +443,26 @@ public class FilePersistentService extends AbstractComponent implements Persiste
             return committedIndex;
         }
 
-        private long offset() {
-            return start - 1;
-        }
-
-        private long length() {
-            return entries.size() + offset();
-        }
-
-        private LogEntry get(long index) {
-            return entries.get((int) (index - start));
-        }
-
-        private LogEntry last() {
-            return entries.get(entries.size() - 1);
-        }
-
         @Override
         public boolean containsMatchingEntry(Term otherPrevTerm, long otherPrevIndex) {
-            return (otherPrevTerm.getTerm() == 0 && otherPrevIndex == 0 && entries.isEmpty()) ||
+            return (otherPrevTerm.getTerm() == 0 && otherPrevIndex == 0 && isEmpty()) ||
                 (!isEmpty() && otherPrevIndex >= committedIndex() && containsEntryAt(otherPrevIndex) && termAt(otherPrevIndex).equals(otherPrevTerm));
         }
 
         @Override
         public Optional<Term> lastTerm() {
-            return (entries.isEmpty()) ? Optional.empty() : Optional.of(last().getTerm());
+            if (!last().isEmpty()) {
+                return Optional.of(new Term(last().lastTerm()));
+            }
+            return hasSnapshot() ? Optional.of(snapshotStore.meta().getLastIncludedTerm()) : Optional.empty();
         }
 
         @Override
         public long lastIndex() {
-            return (entries.isEmpty()) ? 1 : last().getIndex();
+            if (!last().isEmpty()) {
+                return last().lastIndex();
+            }
+            return hasSnapshot() ? snapshotIndex() : 1;
         }
 
         @Override
@@ -214,22 +472,67 @@ public class FilePersistentService extends AbstractComponent implements Persiste
 
         @Override
         public long nextIndex() {
-            return entries.isEmpty() ? 1 : last().getIndex() + 1;
+            return isEmpty() ? 1 : lastIndex() + 1;
         }
 
         @Override
         public ReplicatedLog commit(long committedIndex) {
             this.committedIndex = committedIndex;
-            flush();
             return this;
         }
 
+        @Override
+        public ReplicatedLog flush() {
+            long lastIndex = isEmpty() ? 0 : lastIndex();
+            if (dirty.isEmpty() && flushedIndex == lastIndex) {
+                return this;
+            }
+            Flush flush = startFlush();
+            flush.force();
+            return flushed(flush);
+        }
+
+        @Override
+        public Flush startFlush() {
+            flushing = new FileFlush(new ArrayList<>(dirty), isEmpty() ? 0 : lastIndex(), truncations);
+            dirty.clear();
+            return flushing;
+        }
+
+        @Override
+        public ReplicatedLog flushed(Flush flush) {
+            FileFlush fileFlush = (FileFlush) flush;
+            if (flushing == fileFlush) {
+                flushing = null;
+            }
+            if (fileFlush.truncations != truncations) {
+                logger.debug("log truncated while flush up to {}, ignore", fileFlush.index);
+                return this;
+            }
+            if (fileFlush.index > flushedIndex) {
+                logger.debug("flushed {} entries up to {}", fileFlush.index - flushedIndex, fileFlush.index);
+                flushStatistics.accept(fileFlush.index - flushedIndex);
+                flushedIndex = fileFlush.index;
+            }
+            return this;
+        }
+
+        @Override
+        public long flushedIndex() {
+            return flushedIndex;
+        }
+
+        @Override
+        public LongSummaryStatistics flushStatistics() {
+            LongSummaryStatistics copy = new LongSummaryStatistics();
+            copy.combine(flushStatistics);
+            return copy;
+        }
+
         @Override
         public ReplicatedLog append(LogEntry entry) {
             try {
-                dirty = true;
-                segmentOutput.writeStreamable(entry);
-                this.entries.add(entry);
+                write(encode(entry), entry.getIndex());
                 return this;
             } catch (IOException e) {
                 throw new IOError(e);
@@ -239,11 +542,9 @@ public class FilePersistentService extends AbstractComponent implements Persiste
         @Override
         public ReplicatedLog append(ImmutableList<LogEntry> entries) {
             try {
-                dirty = true;
                 for (LogEntry entry : entries) {
-                    segmentOutput.writeStreamable(entry);
+                    write(encode(entry), entry.getIndex());
                 }
-                this.entries.addAll(entries);
                 return this;
             } catch (IOException e) {
                 throw new IOError(e);
@@ -252,196 +553,245 @@ public class FilePersistentService extends AbstractComponent implements Persiste
 
         @Override
         public ReplicatedLog append(ImmutableList<LogEntry> append, long prevIndex) {
-            if (prevIndex == lastIndex()) {
-                return append(append);
-            } else {
+            if (prevIndex != lastIndex()) {
                 try {
-                    for (int i = entries.size() - 1; i >= 0; i--) {
-                        if (entries.get(i).getIndex() > prevIndex) {
-                            entries.remove(i);
-                        }
-                    }
-                    entries.addAll(append);
-
-                    buffered.flush();
-                    buffered.close();
-                    segmentOutput.close();
-                    File tmpSegment = temporaryFile();
-                    try (StreamOutput output = streamService.output(tmpSegment, false)) {
-                        for (LogEntry logEntry : entries) {
-                            output.writeStreamable(logEntry);
-                        }
-                    }
-                    Files.move(tmpSegment.toPath(), segmentFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-
-                    // recreate file object after move
-                    File newSegmentFile = segmentFile(start);
-                    BufferedOutputStream newBuffered = new BufferedOutputStream(new FileOutputStream(newSegmentFile, true));
-                    StreamOutput newSegmentOutput = streamService.output(newBuffered);
-
-                    this.segmentFile = newSegmentFile;
-                    this.buffered = newBuffered;
-                    this.segmentOutput = newSegmentOutput;
-                    dirty = false;
-                    return this;
+                    truncate(prevIndex + 1);
                 } catch (IOException e) {
                     throw new IOError(e);
                 }
             }
+            return append(append);
+        }
+
+        /**
+         * Discard all entries starting from index
+         */
+        private void truncate(long index) throws IOException {
+            while (segments.size() > 1 && last().firstIndex() >= index) {
+                Segment removed = segments.remove(segments.size() - 1);
+                logger.info("delete segment {}", removed);
+                dirty.remove(removed);
+                removed.delete();
+            }
+            Segment segment = last();
+            segment.truncate(segment.seek(index));
+            dirty.add(segment);
+            cache.removeFrom(index);
+            flushedIndex = Math.min(flushedIndex, index - 1);
+            truncations++;
+            if (hasSnapshot() && snapshotIndex() >= index) {
+                logger.warn("discard snapshot {} conflicting with truncated log", snapshotStore.current());
+                snapshotStore.clear();
+            }
         }
 
         @Override
-        public ImmutableList<LogEntry> entriesBatchFrom(long fromIncluding, int howMany) {
-            ImmutableList<LogEntry> toSend = slice(fromIncluding, fromIncluding + howMany);
-            if (toSend.isEmpty()) {
-                return toSend;
-            } else {
-                Term batchTerm = toSend.get(0).getTerm();
-                ImmutableList.Builder<LogEntry> builder = ImmutableList.builder();
-                for (LogEntry logEntry : toSend) {
-                    if (logEntry.getTerm().equals(batchTerm)) {
-                        builder.add(logEntry);
-                    } else {
-                        break;
+        public ImmutableList<LogEntry> entriesBatchFrom(long fromIncluding, int maxEntries, long maxBytes) {
+            fromIncluding = Math.max(fromIncluding, start());
+            ImmutableList.Builder<LogEntry> builder = ImmutableList.builder();
+            int count = 0;
+            long bytes = 0;
+            if (hasSnapshot() && fromIncluding == snapshotIndex()) {
+                builder.add(snapshotEntry());
+                count++;
+                fromIncluding++;
+            }
+            for (Segment segment : segments) {
+                if (segment.isEmpty() || segment.lastIndex() < fromIncluding) {
+                    continue;
+                }
+                for (int position = segment.seek(fromIncluding); position < segment.end(); position = segment.next(position)) {
+                    // entry size is read from record header, entries out of batch are not decoded
+                    bytes += segment.entrySize(position);
+                    if (count >= maxEntries || (count > 0 && bytes > maxBytes)) {
+                        return builder.build();
                     }
+                    builder.add(read(segment, position));
+                    count++;
                 }
-                return builder.build();
             }
+            return builder.build();
         }
 
         @Override
         public ImmutableList<LogEntry> slice(long from, long until) {
-            int fromIndex = (int) (from - start);
-            int toIndex = (int) (until - start + 1);
-            if (fromIndex >= entries.size()) {
-                return ImmutableList.of();
+            from = Math.max(from, start());
+            ImmutableList.Builder<LogEntry> builder = ImmutableList.builder();
+            if (hasSnapshot() && from == snapshotIndex()) {
+                if (until >= from) {
+                    builder.add(snapshotEntry());
+                }
+                from++;
+            }
+            for (Segment segment : segments) {
+                if (segment.isEmpty() || segment.lastIndex() < from) {
+                    continue;
+                }
+                for (int position = segment.seek(from); position < segment.end(); position = segment.next(position)) {
+                    if (segment.indexAt(position) > until) {
+                        return builder.build();
+                    }
+                    builder.add(read(segment, position));
+                }
             }
-            return ImmutableList.copyOf(entries.subList(Math.max(0, fromIndex), Math.min(toIndex, entries.size())));
+            return builder.build();
         }
 
         @Override
         public boolean containsEntryAt(long index) {
-            return index >= start && index <= length() && get(index).getIndex() == index;
+            if (index < start()) {
+                return false;
+            }
+            if (hasSnapshot() && index == snapshotIndex()) {
+                return true;
+            }
+            Segment segment = segment(index);
+            return segment != null && segment.find(index) >= 0;
         }
 
         @Override
         public Term termAt(long index) {
             if (index <= 0) {
                 return new Term(0);
-            } else if (!containsEntryAt(index)) {
+            }
+            if (hasSnapshot() && index == snapshotIndex()) {
+                return snapshotStore.meta().getLastIncludedTerm();
+            }
+            Segment segment = index < start() ? null : segment(index);
+            int position = segment == null ? -1 : segment.find(index);
+            if (position < 0) {
                 throw new IllegalArgumentException("Unable to find log entry at index " + index);
-            } else {
-                return get(index).getTerm();
             }
+            return new Term(segment.termAt(position));
         }
 
+        /**
+         * Compact log up to snapshot index.
+         * <p>
+         * Snapshot is stored in snapshot store, and log is compacted logically at once: snapshot
+         * entry becomes first entry of log. Segments containing only entries covered by snapshot
+         * are removed, entries are never copied, so segment with snapshot index is kept until
+         * next snapshot covers it completely.
+         */
         @Override
         public ReplicatedLog compactWith(RaftSnapshot snapshot, DiscoveryNode node) {
-            long lastIncludedIndex = snapshot.getMeta().getLastIncludedIndex();
-            LogEntry snapshotEntry = snapshot.toEntry(node);
-
-            if (entries.isEmpty()) {
-                entries.add(snapshotEntry);
-            } else {
-                if (entries.get(0).getIndex() <= lastIncludedIndex) {
-                    entries.set(0, snapshotEntry);
-                } else {
-                    entries.add(0, snapshotEntry);
-                }
-                entries.removeIf(entry -> entry != snapshotEntry && entry.getIndex() <= lastIncludedIndex);
+            try {
+                long started = System.nanoTime();
+                snapshotStore.write(snapshot, node);
+                compacted(started, removeCovered());
+                return this;
+            } catch (IOException e) {
+                throw new IOError(e);
             }
+        }
 
+        @Override
+        public ReplicatedLog compactWith(SnapshotFile snapshot, DiscoveryNode node) {
             try {
-                if (snapshot.getMeta().getLastIncludedIndex() == start) {
-                    buffered.flush();
-                    buffered.close();
-                    segmentOutput.close();
-                    File tmpSegment = temporaryFile();
-                    try (StreamOutput output = streamService.output(tmpSegment, false)) {
-                        for (LogEntry logEntry : entries) {
-                            output.writeStreamable(logEntry);
-                        }
-                    }
-                    Files.move(tmpSegment.toPath(), segmentFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-
-                    // recreate file object after move
-                    File newSegmentFile = segmentFile(start);
-                    BufferedOutputStream newBuffered = new BufferedOutputStream(new FileOutputStream(newSegmentFile, true));
-                    StreamOutput newSegmentOutput = streamService.output(newBuffered);
-
-                    this.segmentFile = newSegmentFile;
-                    this.buffered = newBuffered;
-                    this.segmentOutput = newSegmentOutput;
-                    this.start = lastIncludedIndex;
-                    dirty = false;
-                    return this;
-                } else {
-                    buffered.flush();
-                    buffered.close();
-                    segmentOutput.close();
-                    File newSegmentFile = segmentFile(snapshot.getMeta().getLastIncludedIndex());
-                    BufferedOutputStream newBuffered = new BufferedOutputStream(new FileOutputStream(newSegmentFile, false));
-                    StreamOutput newSegmentOutput = streamService.output(newBuffered);
-                    for (LogEntry logEntry : entries) {
-                        newSegmentOutput.writeStreamable(logEntry);
-                    }
-                    newBuffered.flush();
-                    updateSegment(snapshot.getMeta().getLastIncludedIndex());
-
-                    Files.delete(segmentFile.toPath());
-
-                    this.segmentFile = newSegmentFile;
-                    this.buffered = newBuffered;
-                    this.segmentOutput = newSegmentOutput;
-                    this.start = lastIncludedIndex;
-                    dirty = false;
-                    return this;
-                }
+                long started = System.nanoTime();
+                snapshotStore.install(snapshot, node);
+                compacted(started, removeCovered());
+                return this;
             } catch (IOException e) {
                 throw new IOError(e);
             }
         }
 
+        /**
+         * Remove segments with all entries covered by snapshot.
+         * If no entries left after snapshot, log continues from new segment after snapshot index.
+         *
+         * @return count of bytes removed
+         */
+        private long removeCovered() throws IOException {
+            long snapshotIndex = snapshotIndex();
+            cache.removeUntil(snapshotIndex);
+            int covered = 0;
+            while (covered < segments.size()) {
+                Segment segment = segments.get(covered);
+                if (segment.isEmpty() ? segment.start() > snapshotIndex : segment.lastIndex() > snapshotIndex) {
+                    break;
+                }
+                covered++;
+            }
+            long reclaimed = 0;
+            for (int i = 0; i < covered; i++) {
+                Segment segment = segments.get(i);
+                dirty.remove(segment);
+                reclaimed += segment.end();
+                segment.delete();
+            }
+            segments.subList(0, covered).clear();
+            if (segments.isEmpty()) {
+                segments.add(createSegment(snapshotIndex + 1, segmentSize));
+            }
+            updateSegment(segments.get(0).start());
+            if (dirty.isEmpty() && flushing == null) {
+                flushedIndex = lastIndex();
+            }
+            return reclaimed;
+        }
+
+        private void compacted(long started, long reclaimed) {
+            long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            compactionStatistics.accept(duration);
+            compactionReclaimed += reclaimed;
+            logger.info("compacted log up to {} in {}ms, reclaimed {} bytes", snapshotIndex(), duration, reclaimed);
+        }
+
         @Override
-        public boolean hasSnapshot() {
-            return !entries.isEmpty() && entries.get(0).getCommand() instanceof RaftSnapshot;
+        public LongSummaryStatistics compactionStatistics() {
+            LongSummaryStatistics copy = new LongSummaryStatistics();
+            copy.combine(compactionStatistics);
+            return copy;
         }
 
         @Override
-        public RaftSnapshot snapshot() {
-            return (RaftSnapshot) entries.get(0).getCommand();
+        public long compactionReclaimed() {
+            return compactionReclaimed;
         }
 
-        private void flush() {
-            if (dirty) {
-                try {
-                    buffered.flush();
-                    dirty = false;
-                } catch (IOException e) {
-                    throw new IOError(e);
-                }
+        @Override
+        public long cacheHits() {
+            return cache.hits();
+        }
+
+        @Override
+        public long cacheMisses() {
+            return cache.misses();
+        }
+
+        @Override
+        public boolean hasSnapshot() {
+            return !snapshotStore.isEmpty();
+        }
+
+        @Override
+        public RaftSnapshot snapshot() {
+            try {
+                return snapshotStore.read();
+            } catch (IOException e) {
+                throw new IOError(e);
             }
         }
 
         @Override
         public void close() throws IOException {
-            flush();
-            buffered.flush();
-            buffered.close();
-            segmentOutput.close();
-
-            segmentFile = null;
-            buffered = null;
-            segmentOutput = null;
+            for (Segment segment : segments) {
+                segment.close();
+            }
+            snapshotStore.close();
+            cache.close();
         }
 
         @Override
         public String toString() {
             return "ReplicatedLog{" +
-                "entries=" + entries +
+                "segments=" + segments +
+                ", snapshot=" + snapshotStore +
+                ", cache=" + cache +
                 ", committedIndex=" + committedIndex +
-                ", start=" + start +
-                ", file=" + segmentFile + " (" + segmentFile.length() + " bytes)" +
+                ", start=" + start() +
                 '}';
         }
     }
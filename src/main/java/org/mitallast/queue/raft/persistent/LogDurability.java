@@ -0,0 +1,25 @@
+package org.mitallast.queue.raft.persistent;
+
+/**
+ * Defines when appended log entries are forced to disk
+ * before they are acknowledged to leader or counted in local match index.
+ */
+public enum LogDurability {
+    /**
+     * Never force log, rely on OS page cache write back.
+     */
+    NONE,
+    /**
+     * Group commit: entries appended while previous flush is running
+     * are forced together by next flush.
+     */
+    BATCH,
+    /**
+     * Force log after every append.
+     */
+    EVERY_ENTRY;
+
+    public static LogDurability parse(String value) {
+        return valueOf(value.trim().toUpperCase().replace('-', '_'));
+    }
+}
@@ -1,6 +1,8 @@
 package org.mitallast.queue.raft.persistent;
 
 import org.mitallast.queue.raft.Term;
+import org.mitallast.queue.raft.protocol.RaftSnapshot;
+import org.mitallast.queue.raft.protocol.RaftSnapshotMetadata;
 import org.mitallast.queue.transport.DiscoveryNode;
 
 import java.io.IOException;
@@ -15,4 +17,20 @@ public interface PersistentService {
     void updateState(Term newTerm, Optional<DiscoveryNode> node) throws IOException;
 
     ReplicatedLog openLog() throws IOException;
+
+    /**
+     * @return file of current snapshot, or null if log is not compacted
+     */
+    SnapshotFile snapshotFile();
+
+    /**
+     * Serialize snapshot to file forced to disk, log is compacted with it by
+     * {@link ReplicatedLog#compactWith(SnapshotFile, DiscoveryNode)}. May be called out of raft thread.
+     */
+    SnapshotFile writeSnapshot(RaftSnapshot snapshot) throws IOException;
+
+    /**
+     * @return partial file of snapshot received from leader, new file if other snapshot was received before
+     */
+    SnapshotFile receiveSnapshot(RaftSnapshotMetadata meta) throws IOException;
 }
@@ -2,6 +2,7 @@
 package org.mitallast.queue.raft.persistent;
 
 import com.google.common.collect.ImmutableList;
+import org.mitallast.queue.common.stream.Streamable;
 import org.mitallast.queue.raft.Term;
 import org.mitallast.queue.raft.protocol.LogEntry;
 import org.mitallast.queue.raft.protocol.RaftSnapshot;
@@ -9,6 +10,7 @@ import org.mitallast.queue.transport.DiscoveryNode;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.LongSummaryStatistics;
 import java.util.Optional;
 
 public interface ReplicatedLog extends Closeable {
@@ -19,6 +21,12 @@ public interface ReplicatedLog extends Closeable {
 
     ImmutableList<LogEntry> entries();
 
+    /**
+     * Find last entry with command of class after snapshot, log is scanned backwards
+     * and only command class of scanned entries is read.
+     */
+    Optional<LogEntry> lastEntryOf(Class<? extends Streamable> commandClass);
+
     int committedEntries();
 
     long committedIndex();
@@ -35,6 +43,32 @@ public interface ReplicatedLog extends Closeable {
 
     ReplicatedLog commit(long committedIndex);
 
+    /**
+     * Force all appended entries to disk.
+     */
+    ReplicatedLog flush();
+
+    /**
+     * Start flush of all appended entries. Returned flush may be forced in other thread
+     * concurrently with appends, and is completed by {@link #flushed(Flush)}.
+     */
+    Flush startFlush();
+
+    /**
+     * Complete forced flush, flushed index is advanced if log was not truncated after flush start.
+     */
+    ReplicatedLog flushed(Flush flush);
+
+    /**
+     * @return index of last entry forced to disk
+     */
+    long flushedIndex();
+
+    /**
+     * @return statistics of entries count forced to disk per flush
+     */
+    LongSummaryStatistics flushStatistics();
+
     ReplicatedLog append(LogEntry entry);
 
     ReplicatedLog append(ImmutableList<LogEntry> entries);
@@ -43,7 +77,43 @@ public interface ReplicatedLog extends Closeable {
 
     ReplicatedLog compactWith(RaftSnapshot snapshot, DiscoveryNode node);
 
-    ImmutableList<LogEntry> entriesBatchFrom(long fromIncluding, int howMany);
+    /**
+     * Compact log with snapshot received from leader, file is moved to snapshot store.
+     */
+    ReplicatedLog compactWith(SnapshotFile snapshot, DiscoveryNode node);
+
+    /**
+     * @return statistics of compaction duration in milliseconds
+     */
+    LongSummaryStatistics compactionStatistics();
+
+    /**
+     * @return total size in bytes of log data removed by compaction
+     */
+    long compactionReclaimed();
+
+    /**
+     * @return count of entry reads served from entry cache
+     */
+    long cacheHits();
+
+    /**
+     * @return count of entry reads served from log storage
+     */
+    long cacheMisses();
+
+    default ImmutableList<LogEntry> entriesBatchFrom(long fromIncluding, int howMany) {
+        return entriesBatchFrom(fromIncluding, howMany, Long.MAX_VALUE);
+    }
+
+    /**
+     * Batch may contain entries of different terms, and contains at least one entry if log has
+     * entries from index, even if entry is larger than max bytes.
+     *
+     * @param maxEntries max count of entries in batch
+     * @param maxBytes   max total size of serialized entries in batch
+     */
+    ImmutableList<LogEntry> entriesBatchFrom(long fromIncluding, int maxEntries, long maxBytes);
 
     ImmutableList<LogEntry> slice(long from, long until);
 
@@ -53,8 +123,24 @@ public interface ReplicatedLog extends Closeable {
 
     boolean hasSnapshot();
 
+    /**
+     * Decode current snapshot. Snapshot entry of log at snapshot index keeps only snapshot metadata.
+     */
     RaftSnapshot snapshot();
 
     @Override
     void close() throws IOException;
+
+    interface Flush {
+
+        /**
+         * @return index of last entry covered by flush
+         */
+        long index();
+
+        /**
+         * Force covered entries to disk, safe to call from any thread.
+         */
+        void force();
+    }
 }
@@ -0,0 +1,439 @@
+package org.mitallast.queue.raft.persistent;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.mitallast.queue.common.stream.StreamInput;
+import org.mitallast.queue.common.stream.StreamService;
+import org.mitallast.queue.common.stream.Streamable;
+import org.mitallast.queue.raft.protocol.LogEntry;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.function.IntPredicate;
+import java.util.zip.CRC32;
+
+/**
+ * Fixed size memory mapped log segment.
+ * <p>
+ * Record layout: [length:int][checksum:int][term:long][index:long][client...][command...], where
+ * term, index, client and command is a serialized {@link LogEntry}, length is a payload size and
+ * checksum is a CRC32 of payload. Zero length marks end of data, and it is written after each
+ * appended record, so bytes after the marker are never read as records.
+ * <p>
+ * Segment file may be preallocated with zeros on create, so append and force only write data
+ * blocks, and file size and extents are not updated on the append path.
+ * <p>
+ * On open, records are scanned without decoding payload, and data starting from the first
+ * record with invalid frame, or not continuing previous record, is discarded as torn write.
+ * <p>
+ * Each segment has a sparse index file of [index:long][position:int] pairs,
+ * one pair per {@code indexInterval} bytes of segment data.
+ */
+public class Segment implements Closeable {
+    public final static int LENGTH_SIZE = Integer.BYTES;
+    public final static int CHECKSUM_SIZE = Integer.BYTES;
+    public final static int FRAME_SIZE = LENGTH_SIZE + CHECKSUM_SIZE;
+    public final static int HEADER_SIZE = FRAME_SIZE + Long.BYTES + Long.BYTES;
+    private final static int CHECKSUM_OFFSET = LENGTH_SIZE;
+    private final static int TERM_OFFSET = FRAME_SIZE;
+    private final static int INDEX_OFFSET = FRAME_SIZE + Long.BYTES;
+    private final static int INDEX_ENTRY_SIZE = Long.BYTES + Integer.BYTES;
+
+    private final StreamService streamService;
+    private final long start;
+    private final int indexInterval;
+
+    private File file;
+    private File indexFile;
+    private final RandomAccessFile raf;
+    private final RandomAccessFile indexRaf;
+    private final MappedByteBuffer mapped;
+    private final ByteBuf buffer;
+    private final ByteBuf index;
+
+    private int position;
+    private int discarded;
+    private int indexSize;
+    private long firstIndex;
+    private long lastIndex;
+    private long lastTerm;
+
+    private Segment(StreamService streamService, File file, File indexFile, long start, int size, int indexInterval) throws IOException {
+        this.streamService = streamService;
+        this.file = file;
+        this.indexFile = indexFile;
+        this.start = start;
+        this.indexInterval = indexInterval;
+
+        this.raf = new RandomAccessFile(file, "rw");
+        this.mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        this.buffer = Unpooled.wrappedBuffer(mapped);
+
+        int indexCapacity = (size / indexInterval + 2) * INDEX_ENTRY_SIZE;
+        this.indexRaf = new RandomAccessFile(indexFile, "rw");
+        this.indexRaf.setLength(0);
+        this.index = Unpooled.wrappedBuffer(indexRaf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, indexCapacity));
+    }
+
+    /**
+     * Create new empty segment, existing file content is discarded.
+     *
+     * @param preallocate write zeros up to segment size and force file metadata
+     */
+    public static Segment create(StreamService streamService, File file, File indexFile, long start, int size, int indexInterval, boolean preallocate) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            if (preallocate) {
+                preallocate(raf.getChannel(), size);
+            }
+        }
+        return new Segment(streamService, file, indexFile, start, size, indexInterval);
+    }
+
+    private static void preallocate(FileChannel channel, int size) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocateDirect(Math.min(size, 1024 * 1024));
+        long position = 0;
+        while (position < size) {
+            zeros.clear();
+            zeros.limit((int) Math.min(zeros.capacity(), size - position));
+            position += channel.write(zeros, position);
+        }
+        channel.force(true);
+    }
+
+    /**
+     * Open existing segment, scan record headers and rebuild sparse index.
+     * Commands are not decoded.
+     */
+    public static Segment open(StreamService streamService, File file, File indexFile, long start, int size, int indexInterval) throws IOException {
+        int length = (int) Math.max(size, file.length());
+        Segment segment = new Segment(streamService, file, indexFile, start, length, indexInterval);
+        segment.recover();
+        return segment;
+    }
+
+    private void recover() throws IOException {
+        int pos = 0;
+        while (pos + HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(pos);
+            if (length < HEADER_SIZE - FRAME_SIZE || pos + FRAME_SIZE + length > buffer.capacity()) {
+                break;
+            }
+            if (buffer.getInt(pos + CHECKSUM_OFFSET) != checksum(buffer, pos + FRAME_SIZE, length)) {
+                break;
+            }
+            long term = buffer.getLong(pos + TERM_OFFSET);
+            long entryIndex = buffer.getLong(pos + INDEX_OFFSET);
+            // stale record after truncated tail, if end marker was lost on crash
+            if (pos > 0 && (entryIndex != lastIndex + 1 || term < lastTerm)) {
+                break;
+            }
+            track(pos, term, entryIndex);
+            pos += FRAME_SIZE + length;
+        }
+        position = pos;
+        // discard torn tail, so stale bytes could not be read as records after next append
+        if (pos + LENGTH_SIZE <= buffer.capacity() && buffer.getInt(pos) != 0) {
+            discarded = buffer.capacity() - pos;
+            mark(pos);
+        }
+    }
+
+    /**
+     * Write end of data marker at position, if segment has space for it.
+     */
+    private void mark(int pos) {
+        if (pos + LENGTH_SIZE <= buffer.capacity()) {
+            buffer.setInt(pos, 0);
+        }
+    }
+
+    private static int checksum(ByteBuf buffer, int index, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.nioBuffer(index, length));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Fill frame header of encoded record: payload length and checksum.
+     * Payload is expected to start at {@link #FRAME_SIZE} offset from record reader index.
+     */
+    public static void frame(ByteBuf record) {
+        int readerIndex = record.readerIndex();
+        int length = record.readableBytes() - FRAME_SIZE;
+        record.setInt(readerIndex, length);
+        record.setInt(readerIndex + CHECKSUM_OFFSET, checksum(record, readerIndex + FRAME_SIZE, length));
+    }
+
+    private void track(int pos, long term, long entryIndex) {
+        if (pos == 0) {
+            firstIndex = entryIndex;
+            indexSize = 0;
+        }
+        if (indexSize == 0 || pos - indexEntryPosition(indexSize - 1) >= indexInterval) {
+            if ((indexSize + 1) * INDEX_ENTRY_SIZE <= index.capacity()) {
+                index.setLong(indexSize * INDEX_ENTRY_SIZE, entryIndex);
+                index.setInt(indexSize * INDEX_ENTRY_SIZE + Long.BYTES, pos);
+                indexSize++;
+            }
+        }
+        lastIndex = entryIndex;
+        lastTerm = term;
+    }
+
+    private long indexEntryIndex(int entry) {
+        return index.getLong(entry * INDEX_ENTRY_SIZE);
+    }
+
+    private int indexEntryPosition(int entry) {
+        return index.getInt(entry * INDEX_ENTRY_SIZE + Long.BYTES);
+    }
+
+    public long start() {
+        return start;
+    }
+
+    public File file() {
+        return file;
+    }
+
+    public boolean isEmpty() {
+        return position == 0;
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * @return count of bytes discarded as torn tail on open
+     */
+    public int discarded() {
+        return discarded;
+    }
+
+    /**
+     * @return position of end of data
+     */
+    public int end() {
+        return position;
+    }
+
+    public long firstIndex() {
+        return firstIndex;
+    }
+
+    public long lastIndex() {
+        return lastIndex;
+    }
+
+    public long lastTerm() {
+        return lastTerm;
+    }
+
+    /**
+     * Append encoded record.
+     *
+     * @return false if segment has no space for record
+     */
+    public boolean append(ByteBuf record) {
+        int length = record.readableBytes();
+        if (position + length > buffer.capacity()) {
+            return false;
+        }
+        int readerIndex = record.readerIndex();
+        long term = record.getLong(readerIndex + TERM_OFFSET);
+        long entryIndex = record.getLong(readerIndex + INDEX_OFFSET);
+        buffer.setBytes(position, record, readerIndex, length);
+        track(position, term, entryIndex);
+        position += length;
+        mark(position);
+        return true;
+    }
+
+    /**
+     * @return position of first record with index greater or equal than requested, or {@link #end()}
+     */
+    public int seek(long entryIndex) {
+        if (isEmpty() || entryIndex <= firstIndex) {
+            return 0;
+        }
+        if (entryIndex > lastIndex) {
+            return position;
+        }
+        int low = 0;
+        int high = indexSize - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (indexEntryIndex(mid) <= entryIndex) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int pos = indexEntryPosition(low);
+        while (pos < position && indexAt(pos) < entryIndex) {
+            pos = next(pos);
+        }
+        return pos;
+    }
+
+    /**
+     * @return position of record with requested index, or -1 if not found
+     */
+    public int find(long entryIndex) {
+        if (isEmpty() || entryIndex < firstIndex || entryIndex > lastIndex) {
+            return -1;
+        }
+        int pos = seek(entryIndex);
+        if (pos < position && indexAt(pos) == entryIndex) {
+            return pos;
+        }
+        return -1;
+    }
+
+    /**
+     * Scan records backwards: index blocks are visited from last to first, and records of block
+     * are scanned forward, so only tail of segment is read if record is found near end.
+     *
+     * @return position of last record matching predicate, or -1 if not found
+     */
+    public int findLast(IntPredicate predicate) {
+        int blockEnd = position;
+        for (int block = indexSize - 1; block >= 0; block--) {
+            int blockStart = indexEntryPosition(block);
+            int found = -1;
+            for (int pos = blockStart; pos < blockEnd; pos = next(pos)) {
+                if (predicate.test(pos)) {
+                    found = pos;
+                }
+            }
+            if (found >= 0) {
+                return found;
+            }
+            blockEnd = blockStart;
+        }
+        return -1;
+    }
+
+    public int next(int pos) {
+        return pos + FRAME_SIZE + buffer.getInt(pos);
+    }
+
+    public long termAt(int pos) {
+        return buffer.getLong(pos + TERM_OFFSET);
+    }
+
+    public long indexAt(int pos) {
+        return buffer.getLong(pos + INDEX_OFFSET);
+    }
+
+    /**
+     * @return size of serialized {@link LogEntry} at position, known without decode
+     */
+    public int entrySize(int pos) {
+        return buffer.getInt(pos);
+    }
+
+    /**
+     * @return read only view of encoded record at position, including frame header
+     */
+    public ByteBuf record(int pos) {
+        return buffer.slice(pos, FRAME_SIZE + buffer.getInt(pos));
+    }
+
+    /**
+     * @return read only view of serialized {@link LogEntry} at position, without frame header
+     */
+    public ByteBuf payload(int pos) {
+        return buffer.slice(pos + FRAME_SIZE, buffer.getInt(pos));
+    }
+
+    public LogEntry read(int pos) throws IOException {
+        try (StreamInput input = streamService.input(payload(pos))) {
+            return input.readStreamable(LogEntry::new);
+        }
+    }
+
+    /**
+     * @return command class of record at position, command is not copied or decoded
+     */
+    public Class<? extends Streamable> commandClass(int pos) throws IOException {
+        try (StreamInput input = streamService.input(payload(pos))) {
+            return LogEntry.readCommandClass(input);
+        }
+    }
+
+    /**
+     * Discard all records starting from position by writing end marker, file size is not changed.
+     * Index is trimmed in memory, and last record is found by scan from last index entry.
+     */
+    public void truncate(int pos) {
+        if (pos >= position) {
+            return;
+        }
+        mark(pos);
+        position = pos;
+        while (indexSize > 0 && indexEntryPosition(indexSize - 1) >= pos) {
+            indexSize--;
+        }
+        if (pos == 0) {
+            firstIndex = 0;
+            lastIndex = 0;
+            lastTerm = 0;
+        } else {
+            int scan = indexEntryPosition(indexSize - 1);
+            int last = scan;
+            while (scan < pos) {
+                last = scan;
+                scan = next(scan);
+            }
+            lastIndex = indexAt(last);
+            lastTerm = termAt(last);
+        }
+    }
+
+    /**
+     * Force mapped segment content to disk. Index is rebuilt on open, so it is not forced.
+     */
+    public void force() {
+        mapped.force();
+    }
+
+    public void moveTo(File file, File indexFile) throws IOException {
+        Files.move(this.file.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(this.indexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        this.file = file;
+        this.indexFile = indexFile;
+    }
+
+    public void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(indexFile.toPath());
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+        indexRaf.close();
+    }
+
+    @Override
+    public String toString() {
+        return "Segment{" +
+            "file=" + file.getName() +
+            ", start=" + start +
+            ", first=" + firstIndex +
+            ", last=" + lastIndex +
+            ", position=" + position +
+            '}';
+    }
+}
@@ -0,0 +1,138 @@
+package org.mitallast.queue.raft.persistent;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.FileRegion;
+import org.mitallast.queue.common.stream.StreamInput;
+import org.mitallast.queue.common.stream.StreamOutput;
+import org.mitallast.queue.common.stream.StreamService;
+import org.mitallast.queue.raft.protocol.RaftSnapshot;
+import org.mitallast.queue.raft.protocol.RaftSnapshotMetadata;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+/**
+ * Serialized {@link RaftSnapshot} stored in file, used for transfer to followers by chunks.
+ * <p>
+ * Leader sends chunks of stored snapshot as {@link FileRegion}. Follower appends received
+ * chunks to partial file and decodes snapshot after last chunk, so whole serialized snapshot
+ * is never kept in heap. Partial file survives reconnect, transfer continues from {@link #length()}.
+ */
+public class SnapshotFile implements Closeable {
+    private final StreamService streamService;
+    private final File file;
+    private final RaftSnapshotMetadata meta;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private boolean closed;
+
+    private SnapshotFile(StreamService streamService, File file, RaftSnapshotMetadata meta) throws IOException {
+        this.streamService = streamService;
+        this.file = file;
+        this.meta = meta;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+    }
+
+    /**
+     * Serialize snapshot to file, existing file content is discarded.
+     */
+    public static SnapshotFile write(StreamService streamService, File file, RaftSnapshot snapshot) throws IOException {
+        try (StreamOutput output = streamService.output(new BufferedOutputStream(new FileOutputStream(file)))) {
+            output.writeStreamable(snapshot);
+        }
+        return new SnapshotFile(streamService, file, snapshot.getMeta());
+    }
+
+    /**
+     * Open snapshot file, existing file content is kept.
+     */
+    public static SnapshotFile open(StreamService streamService, File file, RaftSnapshotMetadata meta) throws IOException {
+        return new SnapshotFile(streamService, file, meta);
+    }
+
+    public RaftSnapshotMetadata meta() {
+        return meta;
+    }
+
+    public File file() {
+        return file;
+    }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * @return true if file contains snapshot with same last included index and term
+     */
+    public boolean isFor(RaftSnapshotMetadata meta) {
+        return this.meta.getLastIncludedIndex() == meta.getLastIncludedIndex()
+            && this.meta.getLastIncludedTerm().equals(meta.getLastIncludedTerm());
+    }
+
+    public long length() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * @return region of file starting at offset, sent without copy to heap
+     */
+    public FileRegion region(long offset, int length) throws IOException {
+        long count = Math.max(0, Math.min(length, length() - offset));
+        return new DefaultFileRegion(file, offset, count);
+    }
+
+    /**
+     * Append chunk at end of file.
+     */
+    public void append(ByteBuf chunk) throws IOException {
+        long position = length();
+        ByteBuf data = chunk.duplicate();
+        while (data.isReadable()) {
+            position += data.readBytes(channel, position, data.readableBytes());
+        }
+    }
+
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Open file content for decode, opened content stays readable if file is moved or deleted.
+     */
+    public StreamInput input() throws IOException {
+        return streamService.input(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    /**
+     * Decode snapshot from file content.
+     */
+    public RaftSnapshot readSnapshot() throws IOException {
+        try (StreamInput input = input()) {
+            return input.readStreamable(RaftSnapshot::new);
+        }
+    }
+
+    public void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        raf.close();
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotFile{" +
+            "file=" + file.getName() +
+            ", index=" + meta.getLastIncludedIndex() +
+            ", term=" + meta.getLastIncludedTerm() +
+            '}';
+    }
+}
@@ -0,0 +1,195 @@
+package org.mitallast.queue.raft.persistent;
+
+import org.mitallast.queue.common.file.FileService;
+import org.mitallast.queue.common.stream.StreamInput;
+import org.mitallast.queue.common.stream.StreamOutput;
+import org.mitallast.queue.common.stream.StreamService;
+import org.mitallast.queue.raft.protocol.RaftSnapshot;
+import org.mitallast.queue.raft.protocol.RaftSnapshotMetadata;
+import org.mitallast.queue.transport.DiscoveryNode;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Store of raft snapshot versions, separate from log segments.
+ * <p>
+ * Each version is a file {@code snapshot.<index>.<term>.bin} with serialized {@link RaftSnapshot}.
+ * File {@code snapshot.meta} refers to current version: [meta][node], where node is a client of
+ * snapshot log entry. It is replaced only after version file is forced to disk, so store always
+ * refers to complete snapshot, and previous version is removed after replace.
+ * <p>
+ * Snapshot received from leader is assembled in {@code snapshot.<index>.<term>.part} file and
+ * becomes current version by rename, without decoding and encoding again.
+ */
+public class SnapshotStore implements Closeable {
+    private final FileService fileService;
+    private final StreamService streamService;
+    private final String service;
+    private final File metaFile;
+
+    private DiscoveryNode node;
+    private SnapshotFile current;
+    private SnapshotFile incoming;
+
+    public SnapshotStore(FileService fileService, StreamService streamService, String service) throws IOException {
+        this.fileService = fileService;
+        this.streamService = streamService;
+        this.service = service;
+        this.metaFile = fileService.resource(service, "snapshot.meta");
+
+        if (metaFile.length() > 0) {
+            RaftSnapshotMetadata meta;
+            try (StreamInput input = streamService.input(metaFile)) {
+                meta = input.readStreamable(RaftSnapshotMetadata::new);
+                node = input.readStreamable(DiscoveryNode::new);
+            }
+            File file = versionFile(meta, ".bin");
+            if (file.length() == 0) {
+                throw new IOException("snapshot file " + file + " is empty");
+            }
+            current = SnapshotFile.open(streamService, file, meta);
+        }
+        for (File stale : files(".bin")) {
+            if (current == null || !stale.equals(current.file())) {
+                Files.deleteIfExists(stale.toPath());
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return current == null;
+    }
+
+    public RaftSnapshotMetadata meta() {
+        return current.meta();
+    }
+
+    public DiscoveryNode node() {
+        return node;
+    }
+
+    /**
+     * @return file of current snapshot version
+     */
+    public SnapshotFile current() {
+        return current;
+    }
+
+    /**
+     * Decode current snapshot version.
+     */
+    public RaftSnapshot read() throws IOException {
+        return current.readSnapshot();
+    }
+
+    /**
+     * Serialize snapshot to new version file and make it current.
+     */
+    public void write(RaftSnapshot snapshot, DiscoveryNode node) throws IOException {
+        install(prepare(snapshot), node);
+    }
+
+    /**
+     * Serialize snapshot to temporary file forced to disk, it becomes current version by {@link #install}.
+     * Store state is not changed, so snapshot may be prepared out of raft thread.
+     */
+    public SnapshotFile prepare(RaftSnapshot snapshot) throws IOException {
+        File temporary = fileService.temporary(service, "snapshot.", ".tmp");
+        SnapshotFile file = SnapshotFile.write(streamService, temporary, snapshot);
+        file.force();
+        return file;
+    }
+
+    /**
+     * Make snapshot file current version, file is moved to store.
+     */
+    public void install(SnapshotFile file, DiscoveryNode node) throws IOException {
+        file.force();
+        file.close();
+        if (file == incoming) {
+            incoming = null;
+        }
+        File version = versionFile(file.meta(), ".bin");
+        Files.move(file.file().toPath(), version.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        File temporary = fileService.temporary(service, "snapshot.", ".tmp");
+        try (StreamOutput output = streamService.output(temporary)) {
+            output.writeStreamable(file.meta());
+            output.writeStreamable(node);
+        }
+        Files.move(temporary.toPath(), metaFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        SnapshotFile previous = current;
+        this.current = SnapshotFile.open(streamService, version, file.meta());
+        this.node = node;
+        if (previous != null) {
+            if (previous.file().equals(version)) {
+                previous.close();
+            } else {
+                previous.delete();
+            }
+        }
+    }
+
+    /**
+     * Remove current version, used if log conflicting with snapshot is truncated.
+     */
+    public void clear() throws IOException {
+        if (current != null) {
+            Files.deleteIfExists(metaFile.toPath());
+            current.delete();
+            current = null;
+            node = null;
+        }
+    }
+
+    /**
+     * @return partial file of snapshot received from leader, new file if other snapshot was received before
+     */
+    public SnapshotFile receive(RaftSnapshotMetadata meta) throws IOException {
+        if (incoming != null && incoming.isOpen() && incoming.isFor(meta)) {
+            return incoming;
+        }
+        if (incoming != null) {
+            incoming.close();
+        }
+        File file = versionFile(meta, ".part");
+        for (File stale : files(".part")) {
+            if (!stale.equals(file)) {
+                Files.deleteIfExists(stale.toPath());
+            }
+        }
+        incoming = SnapshotFile.open(streamService, file, meta);
+        return incoming;
+    }
+
+    private File[] files(String suffix) throws IOException {
+        File[] files = fileService.service(service).listFiles((dir, name) -> name.startsWith("snapshot.") && name.endsWith(suffix));
+        return files == null ? new File[0] : files;
+    }
+
+    private File versionFile(RaftSnapshotMetadata meta, String suffix) throws IOException {
+        return fileService.resource(service, "snapshot." + meta.getLastIncludedIndex() + "." + meta.getLastIncludedTerm().getTerm() + suffix);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.close();
+        }
+        if (incoming != null) {
+            incoming.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotStore{" +
+            "current=" + current +
+            '}';
+    }
+}
@@ -0,0 +1,23 @@
+package org.mitallast.queue.raft.protocol;
+
+import org.mitallast.queue.common.stream.StreamInput;
+import org.mitallast.queue.common.stream.StreamOutput;
+import org.mitallast.queue.common.stream.Streamable;
+
+import java.io.IOException;
+
+public class AppendClientBatch implements Streamable {
+
+    public final static AppendClientBatch INSTANCE = new AppendClientBatch();
+
+    public static AppendClientBatch read(StreamInput stream) throws IOException {
+        return INSTANCE;
+    }
+
+    private AppendClientBatch() {
+    }
+
+    @Override
+    public void writeTo(StreamOutput stream) throws IOException {
+    }
+}
@@ -11,15 +11,28 @@ import java.io.IOException;
 public class AppendRejected implements Streamable {
     private final DiscoveryNode member;
     private final Term term;
+    private final long prevLogIndex;
+    private final Term conflictTerm;
+    private final long conflictIndex;
 
     public AppendRejected(StreamInput stream) throws IOException {
         member = stream.readStreamable(DiscoveryNode::new);
         term = new Term(stream.readLong());
+        prevLogIndex = stream.readLong();
+        conflictTerm = new Term(stream.readLong());
+        conflictIndex = stream.readLong();
     }
 
-    public AppendRejected(DiscoveryNode member, Term term) {
+    public AppendRejected(DiscoveryNode member, Term term, long prevLogIndex) {
+        this(member, term, prevLogIndex, new Term(0), 0);
+    }
+
+    public AppendRejected(DiscoveryNode member, Term term, long prevLogIndex, Term conflictTerm, long conflictIndex) {
         this.member = member;
         this.term = term;
+        this.prevLogIndex = prevLogIndex;
+        this.conflictTerm = conflictTerm;
+        this.conflictIndex = conflictIndex;
     }
 
     public DiscoveryNode getMember() {
@@ -30,9 +43,69 @@ public class AppendRejected implements Streamable {
         return term;
     }
 
+    /**
+     * @return prev log index of rejected append entries
+     */
+    public long getPrevLogIndex() {
+        return prevLogIndex;
+    }
+
+    /**
+     * @return term of follower entry at prev log index, or term 0 if follower has no entry at prev log index
+     */
+    public Term getConflictTerm() {
+        return conflictTerm;
+    }
+
+    /**
+     * @return first follower index of conflict term, or next index of follower log if conflict term is 0,
+     * 0 if follower sent no hint
+     */
+    public long getConflictIndex() {
+        return conflictIndex;
+    }
+
     @Override
     public void writeTo(StreamOutput stream) throws IOException {
         stream.writeStreamable(member);
         stream.writeLong(term.getTerm());
+        stream.writeLong(prevLogIndex);
+        stream.writeLong(conflictTerm.getTerm());
+        stream.writeLong(conflictIndex);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        AppendRejected that = (AppendRejected) o;
+
+        if (prevLogIndex != that.prevLogIndex) return false;
+        if (conflictIndex != that.conflictIndex) return false;
+        if (!member.equals(that.member)) return false;
+        if (!term.equals(that.term)) return false;
+        return conflictTerm.equals(that.conflictTerm);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = member.hashCode();
+        result = 31 * result + term.hashCode();
+        result = 31 * result + (int) (prevLogIndex ^ (prevLogIndex >>> 32));
+        result = 31 * result + conflictTerm.hashCode();
+        result = 31 * result + (int) (conflictIndex ^ (conflictIndex >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "AppendRejected{" +
+            "member=" + member +
+            ", term=" + term +
+            ", prevLogIndex=" + prevLogIndex +
+            ", conflictTerm=" + conflictTerm +
+            ", conflictIndex=" + conflictIndex +
+            '}';
     }
 }
@@ -44,6 +44,26 @@ public class AppendSuccessful implements Streamable {
         stream.writeLong(lastIndex);
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        AppendSuccessful that = (AppendSuccessful) o;
+
+        if (lastIndex != that.lastIndex) return false;
+        if (!member.equals(that.member)) return false;
+        return term.equals(that.term);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = member.hashCode();
+        result = 31 * result + term.hashCode();
+        result = 31 * result + (int) (lastIndex ^ (lastIndex >>> 32));
+        return result;
+    }
+
     @Override
     public String toString() {
         return "AppendSuccessful{" +
@@ -0,0 +1,23 @@
+package org.mitallast.queue.raft.protocol;
+
+import org.mitallast.queue.common.stream.StreamInput;
+import org.mitallast.queue.common.stream.StreamOutput;
+import org.mitallast.queue.common.stream.Streamable;
+
+import java.io.IOException;
+
+public class FlushLog implements Streamable {
+
+    public final static FlushLog INSTANCE = new FlushLog();
+
+    public static FlushLog read(StreamInput stream) throws IOException {
+        return INSTANCE;
+    }
+
+    private FlushLog() {
+    }
+
+    @Override
+    public void writeTo(StreamOutput stream) throws IOException {
+    }
+}
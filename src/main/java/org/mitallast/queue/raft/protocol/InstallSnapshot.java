@@ -1,28 +1,59 @@
 package org.mitallast.queue.raft.protocol;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
 import org.mitallast.queue.common.stream.StreamInput;
 import org.mitallast.queue.common.stream.StreamOutput;
 import org.mitallast.queue.common.stream.Streamable;
 import org.mitallast.queue.raft.Term;
 import org.mitallast.queue.transport.DiscoveryNode;
+import org.mitallast.queue.transport.netty.codec.FileRegionMessage;
 
 import java.io.IOException;
 
-public class InstallSnapshot implements Streamable {
+/**
+ * Chunk of serialized snapshot, addressed by offset in snapshot file.
+ * Last chunk is marked as done.
+ * <p>
+ * Leader sends chunk as region of snapshot file, follower receives it as byte buffer.
+ */
+public class InstallSnapshot implements FileRegionMessage {
     private final DiscoveryNode leader;
     private final Term term;
-    private final RaftSnapshot snapshot;
+    private final RaftSnapshotMetadata meta;
+    private final long offset;
+    private final ByteBuf data;
+    private final FileRegion region;
+    private final boolean done;
 
     public InstallSnapshot(StreamInput stream) throws IOException {
         leader = stream.readStreamable(DiscoveryNode::new);
         term = new Term(stream.readLong());
-        snapshot = stream.readStreamable(RaftSnapshot::new);
+        meta = stream.readStreamable(RaftSnapshotMetadata::new);
+        offset = stream.readLong();
+        done = stream.readBoolean();
+        data = stream.readByteBuf();
+        region = null;
     }
 
-    public InstallSnapshot(DiscoveryNode leader, Term term, RaftSnapshot snapshot) {
+    public InstallSnapshot(DiscoveryNode leader, Term term, RaftSnapshotMetadata meta, long offset, ByteBuf data, boolean done) {
         this.leader = leader;
         this.term = term;
-        this.snapshot = snapshot;
+        this.meta = meta;
+        this.offset = offset;
+        this.data = data;
+        this.region = null;
+        this.done = done;
+    }
+
+    public InstallSnapshot(DiscoveryNode leader, Term term, RaftSnapshotMetadata meta, long offset, FileRegion region, boolean done) {
+        this.leader = leader;
+        this.term = term;
+        this.meta = meta;
+        this.offset = offset;
+        this.data = null;
+        this.region = region;
+        this.done = done;
     }
 
     public DiscoveryNode getLeader() {
@@ -33,14 +64,54 @@ public class InstallSnapshot implements Streamable {
         return term;
     }
 
-    public RaftSnapshot getSnapshot() {
-        return snapshot;
+    public RaftSnapshotMetadata getMeta() {
+        return meta;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return chunk content, null if chunk is a file region
+     */
+    public ByteBuf getData() {
+        return data;
+    }
+
+    @Override
+    public FileRegion fileRegion() {
+        return region;
+    }
+
+    public boolean isDone() {
+        return done;
     }
 
     @Override
     public void writeTo(StreamOutput stream) throws IOException {
         stream.writeStreamable(leader);
         stream.writeLong(term.getTerm());
-        stream.writeStreamable(snapshot);
+        stream.writeStreamable(meta);
+        stream.writeLong(offset);
+        stream.writeBoolean(done);
+        if (region != null) {
+            // region content is written by transport
+            stream.writeInt((int) region.count());
+        } else {
+            stream.writeByteBuf(data.duplicate());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "InstallSnapshot{" +
+            "leader=" + leader +
+            ", term=" + term +
+            ", meta=" + meta +
+            ", offset=" + offset +
+            ", length=" + (region != null ? region.count() : data.readableBytes()) +
+            ", done=" + done +
+            '}';
     }
 }
@@ -0,0 +1,89 @@
+package org.mitallast.queue.raft.protocol;
+
+import org.mitallast.queue.common.stream.StreamInput;
+import org.mitallast.queue.common.stream.StreamOutput;
+import org.mitallast.queue.common.stream.Streamable;
+import org.mitallast.queue.raft.Term;
+import org.mitallast.queue.transport.DiscoveryNode;
+
+import java.io.IOException;
+
+/**
+ * Acknowledgement of snapshot chunk, contains offset of next expected chunk.
+ */
+public class InstallSnapshotProgress implements Streamable {
+    private final DiscoveryNode member;
+    private final Term term;
+    private final long lastIncludedIndex;
+    private final long offset;
+
+    public InstallSnapshotProgress(StreamInput stream) throws IOException {
+        member = stream.readStreamable(DiscoveryNode::new);
+        term = new Term(stream.readLong());
+        lastIncludedIndex = stream.readLong();
+        offset = stream.readLong();
+    }
+
+    public InstallSnapshotProgress(DiscoveryNode member, Term term, long lastIncludedIndex, long offset) {
+        this.member = member;
+        this.term = term;
+        this.lastIncludedIndex = lastIncludedIndex;
+        this.offset = offset;
+    }
+
+    public DiscoveryNode getMember() {
+        return member;
+    }
+
+    public Term getTerm() {
+        return term;
+    }
+
+    public long getLastIncludedIndex() {
+        return lastIncludedIndex;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public void writeTo(StreamOutput stream) throws IOException {
+        stream.writeStreamable(member);
+        stream.writeLong(term.getTerm());
+        stream.writeLong(lastIncludedIndex);
+        stream.writeLong(offset);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        InstallSnapshotProgress that = (InstallSnapshotProgress) o;
+
+        if (lastIncludedIndex != that.lastIncludedIndex) return false;
+        if (offset != that.offset) return false;
+        if (!member.equals(that.member)) return false;
+        return term.equals(that.term);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = member.hashCode();
+        result = 31 * result + term.hashCode();
+        result = 31 * result + (int) (lastIncludedIndex ^ (lastIncludedIndex >>> 32));
+        result = 31 * result + (int) (offset ^ (offset >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "InstallSnapshotProgress{" +
+            "member=" + member +
+            ", term=" + term +
+            ", lastIncludedIndex=" + lastIncludedIndex +
+            ", offset=" + offset +
+            '}';
+    }
+}
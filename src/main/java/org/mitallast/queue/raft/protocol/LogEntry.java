@@ -1,5 +1,6 @@
 package org.mitallast.queue.raft.protocol;
 
+import org.mitallast.queue.common.stream.LazyStreamable;
 import org.mitallast.queue.common.stream.StreamInput;
 import org.mitallast.queue.common.stream.StreamOutput;
 import org.mitallast.queue.common.stream.Streamable;
@@ -9,26 +10,39 @@ import org.mitallast.queue.transport.DiscoveryNode;
 
 import java.io.IOException;
 
+/**
+ * Log entry keeps command in serialized form as it was read from log or network,
+ * so it is replicated without re-encoding and decoded only when applied.
+ */
 public class LogEntry implements Streamable {
     private final Term term;
     private final long index;
-    private final Streamable command;
     private final DiscoveryNode client;
+    private final LazyStreamable<Streamable> command;
 
     public LogEntry(StreamInput stream) throws IOException {
         term = new Term(stream.readLong());
         index = stream.readLong();
-        command = stream.readStreamable();
         client = stream.readStreamable(DiscoveryNode::new);
+        command = stream.readLazyStreamable();
     }
 
     public LogEntry(Streamable command, Term term, long index, DiscoveryNode client) {
-        this.command = command;
+        this.command = LazyStreamable.of(command);
         this.term = term;
         this.index = index;
         this.client = client;
     }
 
+    /**
+     * Read command class of serialized entry, command is not copied or decoded.
+     */
+    public static Class<? extends Streamable> readCommandClass(StreamInput stream) throws IOException {
+        stream.skipBytes(Long.BYTES + Long.BYTES);
+        stream.readStreamable(DiscoveryNode::new);
+        return stream.readLazyStreamableClass();
+    }
+
     public Term getTerm() {
         return term;
     }
@@ -41,17 +55,30 @@ public class LogEntry implements Streamable {
         return client;
     }
 
+    /**
+     * @return decoded command, decodes serialized command on first call
+     */
     public Streamable getCommand() {
-        return command;
+        return command.get();
+    }
+
+    /**
+     * @return command class, does not decode serialized command
+     */
+    public Class<? extends Streamable> getCommandClass() {
+        return command.streamableClass();
+    }
+
+    public boolean isCommand(Class<? extends Streamable> commandClass) {
+        return commandClass.isAssignableFrom(command.streamableClass());
     }
 
     @Override
     public void writeTo(StreamOutput stream) throws IOException {
         stream.writeLong(term.getTerm());
         stream.writeLong(index);
-        stream.writeClass(command.getClass());
-        stream.writeStreamable(command);
         stream.writeStreamable(client);
+        stream.writeLazyStreamable(command);
     }
 
     @Override
@@ -81,7 +108,7 @@ public class LogEntry implements Streamable {
     public String toString() {
 
         return "LogEntry{term=" + term.getTerm() + ',' + index +
-            ',' + (command instanceof ClusterConfiguration ? command : command.getClass().getSimpleName()) +
+            ',' + (isCommand(ClusterConfiguration.class) ? command.get() : command.streamableClass().getSimpleName()) +
             ',' + client +
             '}';
     }
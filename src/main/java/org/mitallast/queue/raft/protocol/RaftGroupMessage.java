@@ -0,0 +1,78 @@
+package org.mitallast.queue.raft.protocol;
+
+import io.netty.channel.FileRegion;
+import org.mitallast.queue.common.stream.StreamInput;
+import org.mitallast.queue.common.stream.StreamOutput;
+import org.mitallast.queue.common.stream.Streamable;
+import org.mitallast.queue.transport.netty.codec.FileRegionMessage;
+
+import java.io.IOException;
+
+/**
+ * Raft protocol message addressed to one of raft groups hosted by node.
+ * <p>
+ * Wrapped message is written last, so region of wrapped {@link FileRegionMessage} is sent right after it.
+ */
+public class RaftGroupMessage implements FileRegionMessage {
+    private final String group;
+    private final Streamable message;
+
+    public RaftGroupMessage(StreamInput stream) throws IOException {
+        group = stream.readText();
+        message = stream.readStreamable();
+    }
+
+    public RaftGroupMessage(String group, Streamable message) {
+        this.group = group;
+        this.message = message;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public Streamable getMessage() {
+        return message;
+    }
+
+    @Override
+    public FileRegion fileRegion() {
+        if (message instanceof FileRegionMessage) {
+            return ((FileRegionMessage) message).fileRegion();
+        }
+        return null;
+    }
+
+    @Override
+    public void writeTo(StreamOutput stream) throws IOException {
+        stream.writeText(group);
+        stream.writeClass(message.getClass());
+        stream.writeStreamable(message);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        RaftGroupMessage that = (RaftGroupMessage) o;
+
+        if (!group.equals(that.group)) return false;
+        return message.equals(that.message);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = group.hashCode();
+        result = 31 * result + message.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "RaftGroupMessage{" +
+            "group='" + group + '\'' +
+            ", message=" + message +
+            '}';
+    }
+}
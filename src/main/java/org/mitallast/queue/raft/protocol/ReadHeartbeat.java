@@ -0,0 +1,78 @@
+package org.mitallast.queue.raft.protocol;
+
+import org.mitallast.queue.common.stream.StreamInput;
+import org.mitallast.queue.common.stream.StreamOutput;
+import org.mitallast.queue.common.stream.Streamable;
+import org.mitallast.queue.raft.Term;
+import org.mitallast.queue.transport.DiscoveryNode;
+
+import java.io.IOException;
+
+/**
+ * Sent by leader to confirm leadership for read index round.
+ */
+public class ReadHeartbeat implements Streamable {
+    private final DiscoveryNode member;
+    private final Term term;
+    private final long round;
+
+    public ReadHeartbeat(StreamInput stream) throws IOException {
+        member = stream.readStreamable(DiscoveryNode::new);
+        term = new Term(stream.readLong());
+        round = stream.readLong();
+    }
+
+    public ReadHeartbeat(DiscoveryNode member, Term term, long round) {
+        this.member = member;
+        this.term = term;
+        this.round = round;
+    }
+
+    public DiscoveryNode getMember() {
+        return member;
+    }
+
+    public Term getTerm() {
+        return term;
+    }
+
+    public long getRound() {
+        return round;
+    }
+
+    @Override
+    public void writeTo(StreamOutput stream) throws IOException {
+        stream.writeStreamable(member);
+        stream.writeLong(term.getTerm());
+        stream.writeLong(round);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ReadHeartbeat that = (ReadHeartbeat) o;
+
+        if (round != that.round) return false;
+        if (!member.equals(that.member)) return false;
+        return term.equals(that.term);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = member.hashCode();
+        result = 31 * result + term.hashCode();
+        result = 31 * result + (int) (round ^ (round >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ReadHeartbeat{" +
+            "member=" + member +
+            ", term=" + term +
+            ", round=" + round +
+            '}';
+    }
+}
@@ -0,0 +1,66 @@
+package org.mitallast.queue.raft.protocol;
+
+import org.mitallast.queue.common.stream.StreamInput;
+import org.mitallast.queue.common.stream.StreamOutput;
+import org.mitallast.queue.common.stream.Streamable;
+import org.mitallast.queue.transport.DiscoveryNode;
+
+import java.io.IOException;
+
+/**
+ * Sent by follower to leader to get read index for batch of follower reads.
+ */
+public class ReadIndexRequest implements Streamable {
+    private final DiscoveryNode member;
+    private final long id;
+
+    public ReadIndexRequest(StreamInput stream) throws IOException {
+        member = stream.readStreamable(DiscoveryNode::new);
+        id = stream.readLong();
+    }
+
+    public ReadIndexRequest(DiscoveryNode member, long id) {
+        this.member = member;
+        this.id = id;
+    }
+
+    public DiscoveryNode getMember() {
+        return member;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public void writeTo(StreamOutput stream) throws IOException {
+        stream.writeStreamable(member);
+        stream.writeLong(id);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ReadIndexRequest that = (ReadIndexRequest) o;
+
+        if (id != that.id) return false;
+        return member.equals(that.member);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = member.hashCode();
+        result = 31 * result + (int) (id ^ (id >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ReadIndexRequest{" +
+            "member=" + member +
+            ", id=" + id +
+            '}';
+    }
+}
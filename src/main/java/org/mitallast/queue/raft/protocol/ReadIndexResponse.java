@@ -0,0 +1,90 @@
+package org.mitallast.queue.raft.protocol;
+
+import org.mitallast.queue.common.stream.StreamInput;
+import org.mitallast.queue.common.stream.StreamOutput;
+import org.mitallast.queue.common.stream.Streamable;
+import org.mitallast.queue.raft.Term;
+import org.mitallast.queue.transport.DiscoveryNode;
+
+import java.io.IOException;
+
+/**
+ * Sent by leader after leadership is confirmed, reads are served by follower
+ * after it applied entries up to read index.
+ */
+public class ReadIndexResponse implements Streamable {
+    private final DiscoveryNode member;
+    private final Term term;
+    private final long id;
+    private final long readIndex;
+
+    public ReadIndexResponse(StreamInput stream) throws IOException {
+        member = stream.readStreamable(DiscoveryNode::new);
+        term = new Term(stream.readLong());
+        id = stream.readLong();
+        readIndex = stream.readLong();
+    }
+
+    public ReadIndexResponse(DiscoveryNode member, Term term, long id, long readIndex) {
+        this.member = member;
+        this.term = term;
+        this.id = id;
+        this.readIndex = readIndex;
+    }
+
+    public DiscoveryNode getMember() {
+        return member;
+    }
+
+    public Term getTerm() {
+        return term;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getReadIndex() {
+        return readIndex;
+    }
+
+    @Override
+    public void writeTo(StreamOutput stream) throws IOException {
+        stream.writeStreamable(member);
+        stream.writeLong(term.getTerm());
+        stream.writeLong(id);
+        stream.writeLong(readIndex);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ReadIndexResponse that = (ReadIndexResponse) o;
+
+        if (id != that.id) return false;
+        if (readIndex != that.readIndex) return false;
+        if (!member.equals(that.member)) return false;
+        return term.equals(that.term);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = member.hashCode();
+        result = 31 * result + term.hashCode();
+        result = 31 * result + (int) (id ^ (id >>> 32));
+        result = 31 * result + (int) (readIndex ^ (readIndex >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ReadIndexResponse{" +
+            "member=" + member +
+            ", term=" + term +
+            ", id=" + id +
+            ", readIndex=" + readIndex +
+            '}';
+    }
+}
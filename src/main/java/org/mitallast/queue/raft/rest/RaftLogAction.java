@@ -5,8 +5,10 @@ import com.typesafe.config.Config;
 import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import org.mitallast.queue.common.Histogram;
 import org.mitallast.queue.common.xstream.XStreamBuilder;
 import org.mitallast.queue.raft.Raft;
+import org.mitallast.queue.raft.RaftContext;
 import org.mitallast.queue.raft.persistent.ReplicatedLog;
 import org.mitallast.queue.raft.protocol.LogEntry;
 import org.mitallast.queue.rest.BaseRestHandler;
@@ -14,23 +16,34 @@ import org.mitallast.queue.rest.RestController;
 import org.mitallast.queue.rest.RestRequest;
 import org.mitallast.queue.rest.RestSession;
 import org.mitallast.queue.rest.response.ByteBufRestResponse;
+import org.mitallast.queue.rest.response.StatusRestResponse;
 
 import java.io.IOException;
+import java.util.LongSummaryStatistics;
 
 public class RaftLogAction extends BaseRestHandler {
 
     private final Raft raft;
+    private final RaftContext context;
 
     @Inject
-    public RaftLogAction(Config config, RestController controller, Raft raft) {
+    public RaftLogAction(Config config, RestController controller, Raft raft, RaftContext context) {
         super(config.getConfig("rest"), RaftStateAction.class);
         this.raft = raft;
+        this.context = context;
         controller.registerHandler(HttpMethod.GET, "/_raft/log", this);
     }
 
     @Override
     public void handleRequest(RestRequest request, RestSession session) {
         request.content().release();
+        // log, entry cache and raft statistics are not thread safe, response is built in raft event loop
+        if (!context.execute(() -> sendLog(request, session))) {
+            session.sendResponse(new StatusRestResponse(HttpResponseStatus.SERVICE_UNAVAILABLE));
+        }
+    }
+
+    private void sendLog(RestRequest request, RestSession session) {
         ReplicatedLog log = raft.replicatedLog();
 
         ByteBuf buffer = session.alloc().directBuffer();
@@ -39,13 +52,46 @@ public class RaftLogAction extends BaseRestHandler {
                 builder.writeStartObject();
 
                 builder.writeNumberField("committedIndex", log.committedIndex());
+                builder.writeNumberField("lastApplied", raft.lastApplied());
+                builder.writeNumberField("flushedIndex", log.flushedIndex());
+
+                LongSummaryStatistics flush = log.flushStatistics();
+                builder.writeObjectFieldStart("flush");
+                builder.writeNumberField("count", flush.getCount());
+                builder.writeNumberField("entries", flush.getSum());
+                builder.writeNumberField("minBatch", flush.getCount() == 0 ? 0 : flush.getMin());
+                builder.writeNumberField("maxBatch", flush.getCount() == 0 ? 0 : flush.getMax());
+                builder.writeNumberField("avgBatch", flush.getAverage());
+                builder.writeEndObject();
+
+                LongSummaryStatistics compaction = log.compactionStatistics();
+                builder.writeObjectFieldStart("compaction");
+                builder.writeNumberField("count", compaction.getCount());
+                builder.writeNumberField("maxMillis", compaction.getCount() == 0 ? 0 : compaction.getMax());
+                builder.writeNumberField("avgMillis", compaction.getAverage());
+                builder.writeNumberField("reclaimedBytes", log.compactionReclaimed());
+                builder.writeEndObject();
+
+                builder.writeObjectFieldStart("cache");
+                builder.writeNumberField("hits", log.cacheHits());
+                builder.writeNumberField("misses", log.cacheMisses());
+                builder.writeEndObject();
+
+                builder.writeObjectFieldStart("clientBatch");
+                writeHistogram(builder, "entries", raft.clientBatchEntries());
+                writeHistogram(builder, "delayMicros", raft.clientBatchDelay());
+                builder.writeEndObject();
+
+                builder.writeObjectFieldStart("readRound");
+                writeHistogram(builder, "entries", raft.readRoundEntries());
+                builder.writeEndObject();
 
                 builder.writeArrayFieldStart("entries");
                 for (LogEntry logEntry : log.entries()) {
                     builder.writeStartObject();
                     builder.writeNumberField("term", logEntry.getTerm().getTerm());
                     builder.writeNumberField("index", logEntry.getIndex());
-                    builder.writeStringField("command", logEntry.getCommand().getClass().getSimpleName());
+                    builder.writeStringField("command", logEntry.getCommandClass().getSimpleName());
                     builder.writeObjectFieldStart("client");
                     builder.writeStringField("host", logEntry.getClient().host());
                     builder.writeNumberField("port", logEntry.getClient().port());
@@ -60,4 +106,14 @@ public class RaftLogAction extends BaseRestHandler {
             session.sendResponse(e);
         }
     }
+
+    private void writeHistogram(XStreamBuilder builder, String name, Histogram histogram) throws IOException {
+        builder.writeObjectFieldStart(name);
+        builder.writeNumberField("count", histogram.count());
+        builder.writeNumberField("avg", histogram.average());
+        builder.writeNumberField("p50", histogram.percentile(0.5));
+        builder.writeNumberField("p99", histogram.percentile(0.99));
+        builder.writeNumberField("max", histogram.max());
+        builder.writeEndObject();
+    }
 }
@@ -9,9 +9,11 @@ import org.mitallast.queue.common.stream.StreamService;
 import org.mitallast.queue.transport.DiscoveryNode;
 import org.mitallast.queue.transport.TransportController;
 import org.mitallast.queue.transport.TransportServer;
+import org.mitallast.queue.transport.netty.codec.PingTransportFrame;
 import org.mitallast.queue.transport.netty.codec.TransportFrame;
 import org.mitallast.queue.transport.netty.codec.TransportFrameDecoder;
 import org.mitallast.queue.transport.netty.codec.TransportFrameEncoder;
+import org.mitallast.queue.transport.netty.codec.TransportFrameType;
 
 public class NettyTransportServer extends NettyServer implements TransportServer {
 
@@ -66,7 +68,12 @@ public class NettyTransportServer extends NettyServer implements TransportServer
 
         @Override
         protected void channelRead0(ChannelHandlerContext ctx, TransportFrame request) {
-            transportController.dispatch(request);
+            if (request.type() == TransportFrameType.PING) {
+                // handshake, reply with current version
+                ctx.writeAndFlush(PingTransportFrame.CURRENT);
+            } else {
+                transportController.dispatch(request);
+            }
         }
 
         @Override
@@ -5,18 +5,25 @@ import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
 import com.typesafe.config.Config;
 import io.netty.channel.*;
+import io.netty.util.AttributeKey;
 import io.netty.util.concurrent.DefaultEventExecutor;
 import io.netty.util.concurrent.DefaultThreadFactory;
+import org.mitallast.queue.Version;
 import org.mitallast.queue.common.Immutable;
 import org.mitallast.queue.common.netty.NettyClientBootstrap;
+import org.mitallast.queue.common.stream.Compression;
 import org.mitallast.queue.common.stream.StreamService;
+import org.mitallast.queue.common.stream.Streamable;
 import org.mitallast.queue.transport.DiscoveryNode;
 import org.mitallast.queue.transport.TransportChannel;
 import org.mitallast.queue.transport.TransportController;
 import org.mitallast.queue.transport.TransportService;
+import org.mitallast.queue.transport.netty.codec.MessageTransportFrame;
+import org.mitallast.queue.transport.netty.codec.PingTransportFrame;
 import org.mitallast.queue.transport.netty.codec.TransportFrame;
 import org.mitallast.queue.transport.netty.codec.TransportFrameDecoder;
 import org.mitallast.queue.transport.netty.codec.TransportFrameEncoder;
+import org.mitallast.queue.transport.netty.codec.TransportFrameType;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -25,8 +32,12 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class NettyTransportService extends NettyClientBootstrap implements TransportService {
+    private final static AttributeKey<Version> versionAttr = AttributeKey.valueOf("version");
+
     private final ReentrantLock connectionLock;
     private final int maxConnections;
+    private final Compression compression;
+    private final int compressionThreshold;
     private final TransportController transportController;
     private final StreamService streamService;
     private final DefaultEventExecutor executor;
@@ -38,6 +49,8 @@ public class NettyTransportService extends NettyClientBootstrap implements Trans
         this.transportController = transportController;
         this.streamService = streamService;
         maxConnections = this.config.getInt("max_connections");
+        compression = Compression.parse(this.config.getString("compression"));
+        compressionThreshold = (int) this.config.getBytes("compression_threshold").longValue();
         connectedNodes = ImmutableMap.of();
         connectionLock = new ReentrantLock();
         executor = new DefaultEventExecutor(new DefaultThreadFactory("connect"));
@@ -50,12 +63,26 @@ public class NettyTransportService extends NettyClientBootstrap implements Trans
             protected void initChannel(Channel ch) throws Exception {
                 ChannelPipeline pipeline = ch.pipeline();
                 pipeline.addLast(new TransportFrameDecoder(streamService));
-                pipeline.addLast(new TransportFrameEncoder(streamService));
+                pipeline.addLast(new TransportFrameEncoder(streamService, compression, compressionThreshold));
                 pipeline.addLast(new SimpleChannelInboundHandler<TransportFrame>(false) {
 
+                    @Override
+                    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+                        // handshake is sent in lowest version, so any peer is able to decode it,
+                        // peer replies with ping of own version
+                        ctx.writeAndFlush(new PingTransportFrame(Version.V1_0_0));
+                        super.channelActive(ctx);
+                    }
+
                     @Override
                     protected void channelRead0(ChannelHandlerContext ctx, TransportFrame frame) throws Exception {
-                        transportController.dispatch(frame);
+                        if (frame.type() == TransportFrameType.PING) {
+                            Version version = Version.min(Version.CURRENT, frame.version());
+                            logger.debug("negotiated version {} with {}", version, ctx.channel().remoteAddress());
+                            ctx.channel().attr(versionAttr).set(version);
+                        } else {
+                            transportController.dispatch(frame);
+                        }
                     }
 
                     @Override
@@ -189,6 +216,19 @@ public class NettyTransportService extends NettyClientBootstrap implements Trans
             channel.writeAndFlush(message, channel.voidPromise());
         }
 
+        /**
+         * Send message in version negotiated with peer, lowest version until handshake is completed.
+         */
+        @Override
+        public void message(Streamable message) throws IOException {
+            Channel channel = channel();
+            Version version = channel.attr(versionAttr).get();
+            if (version == null) {
+                version = Version.V1_0_0;
+            }
+            channel.writeAndFlush(new MessageTransportFrame(version, message), channel.voidPromise());
+        }
+
         @Override
         public synchronized void close() {
             closed.set(true);
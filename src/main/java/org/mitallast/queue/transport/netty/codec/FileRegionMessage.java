@@ -0,0 +1,18 @@
+package org.mitallast.queue.transport.netty.codec;
+
+import io.netty.channel.FileRegion;
+import org.mitallast.queue.common.stream.Streamable;
+
+/**
+ * Message with trailing content sent from file by {@link FileRegion}, without copy to heap.
+ * <p>
+ * Message writes own fields and length of region, and {@link TransportFrameEncoder}
+ * writes region content right after it, so it is read back as a byte buffer.
+ */
+public interface FileRegionMessage extends Streamable {
+
+    /**
+     * @return region of trailing content, or null if content is written by message itself
+     */
+    FileRegion fileRegion();
+}
@@ -1,9 +1,11 @@
 package org.mitallast.queue.transport.netty.codec;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import org.mitallast.queue.Version;
+import org.mitallast.queue.common.stream.Compression;
 import org.mitallast.queue.common.stream.StreamInput;
 import org.mitallast.queue.common.stream.StreamService;
 import org.mitallast.queue.common.stream.Streamable;
@@ -53,9 +55,27 @@ public class TransportFrameDecoder extends ByteToMessageDecoder {
                 }
                 buffer.readerIndex(buffer.readerIndex() + MESSAGE_HEADER_SIZE);
                 int start = buffer.readerIndex();
+                Compression compression = Compression.NONE;
+                if (version.onOrAfter(Version.V1_1_0)) {
+                    compression = Compression.fromId(buffer.readByte());
+                }
                 final Streamable message;
-                try (StreamInput input = streamService.input(buffer)) {
-                    message = input.readStreamable();
+                if (compression == Compression.NONE) {
+                    try (StreamInput input = streamService.input(buffer)) {
+                        message = input.readStreamable();
+                    }
+                } else {
+                    int uncompressedSize = buffer.readInt();
+                    ByteBuf body = Unpooled.buffer(uncompressedSize, uncompressedSize);
+                    try {
+                        compression.decompress(buffer, buffer.readerIndex(), start + size - buffer.readerIndex(), body, uncompressedSize);
+                        try (StreamInput input = streamService.input(body)) {
+                            message = input.readStreamable();
+                        }
+                    } finally {
+                        body.release();
+                    }
+                    buffer.readerIndex(start + size);
                 }
                 int readSize = buffer.readerIndex() - start;
                 if (readSize < size) {
@@ -2,16 +2,66 @@ package org.mitallast.queue.transport.netty.codec;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
 import io.netty.handler.codec.MessageToByteEncoder;
+import org.mitallast.queue.Version;
+import org.mitallast.queue.common.stream.Compression;
 import org.mitallast.queue.common.stream.StreamOutput;
 import org.mitallast.queue.common.stream.StreamService;
 import org.mitallast.queue.common.stream.Streamable;
 
+/**
+ * Frame layout: [version:short][type:byte], message frame continues with [size:int][body].
+ * <p>
+ * Since {@link Version#V1_1_0} message body starts with compression codec: [codec:byte][message]
+ * if message is not compressed, or [codec:byte][uncompressed size:int][compressed message].
+ * Message is compressed only if frame version is negotiated with peer, and message is not
+ * smaller than threshold.
+ */
 public class TransportFrameEncoder extends MessageToByteEncoder<TransportFrame> {
     private final StreamService streamService;
+    private final Compression compression;
+    private final int compressionThreshold;
 
     public TransportFrameEncoder(StreamService streamService) {
+        this(streamService, Compression.NONE, Integer.MAX_VALUE);
+    }
+
+    public TransportFrameEncoder(StreamService streamService, Compression compression, int compressionThreshold) {
         this.streamService = streamService;
+        this.compression = compression;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        FileRegion region = fileRegion(msg);
+        if (region == null) {
+            super.write(ctx, msg, promise);
+        } else {
+            // frame header and message fields, followed by region content
+            ByteBuf buffer = ctx.alloc().ioBuffer();
+            try {
+                encode(ctx, (TransportFrame) msg, buffer);
+            } catch (Exception e) {
+                buffer.release();
+                region.release();
+                throw e;
+            }
+            ctx.write(buffer, ctx.voidPromise());
+            ctx.write(region, promise);
+        }
+    }
+
+    private static FileRegion fileRegion(Object msg) {
+        if (msg instanceof MessageTransportFrame) {
+            Streamable message = ((MessageTransportFrame) msg).message();
+            if (message instanceof FileRegionMessage) {
+                return ((FileRegionMessage) message).fileRegion();
+            }
+        }
+        return null;
     }
 
     @Override
@@ -25,13 +75,44 @@ public class TransportFrameEncoder extends MessageToByteEncoder<TransportFrame>
             MessageTransportFrame request = (MessageTransportFrame) frame;
             int sizePos = out.writerIndex();
             out.writerIndex(out.writerIndex() + 4);
+            boolean codec = frame.version().onOrAfter(Version.V1_1_0);
+            if (codec) {
+                out.writeByte(Compression.NONE.id());
+            }
+            int bodyPos = out.writerIndex();
             try (StreamOutput output = streamService.output(out)) {
                 Streamable message = request.message();
                 output.writeClass(message.getClass());
                 output.writeStreamable(message);
             }
+            FileRegion region = fileRegion(frame);
+            int bodySize = out.writerIndex() - bodyPos;
+            if (codec && region == null && compression != Compression.NONE && bodySize >= compressionThreshold) {
+                compress(out, bodyPos, bodySize);
+            }
             int size = out.writerIndex() - sizePos - 4;
+            if (region != null) {
+                size += region.count();
+            }
             out.setInt(sizePos, size);
         }
     }
+
+    /**
+     * Replace message body with compressed body, if it is smaller.
+     */
+    private void compress(ByteBuf out, int bodyPos, int bodySize) {
+        ByteBuf compressed = out.alloc().heapBuffer(bodySize);
+        try {
+            compression.compress(out, bodyPos, bodySize, compressed);
+            if (compressed.readableBytes() + Integer.BYTES < bodySize) {
+                out.writerIndex(bodyPos - 1);
+                out.writeByte(compression.id());
+                out.writeInt(bodySize);
+                out.writeBytes(compressed);
+            }
+        } finally {
+            compressed.release();
+        }
+    }
 }
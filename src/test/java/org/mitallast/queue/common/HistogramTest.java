@@ -0,0 +1,46 @@
+package org.mitallast.queue.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void testEmpty() {
+        Histogram histogram = new Histogram();
+        Assert.assertEquals(0, histogram.count());
+        Assert.assertEquals(0, histogram.percentile(0.99));
+        Assert.assertEquals(0.0, histogram.average(), 0.0);
+    }
+
+    @Test
+    public void testRecord() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(100, histogram.count());
+        Assert.assertEquals(5050, histogram.sum());
+        Assert.assertEquals(100, histogram.max());
+        Assert.assertEquals(50.5, histogram.average(), 0.0);
+        // 50 is in bucket [32, 63]
+        Assert.assertEquals(63, histogram.percentile(0.5));
+        // 99 is in bucket [64, 127], bounded by max
+        Assert.assertEquals(100, histogram.percentile(0.99));
+    }
+
+    @Test
+    public void testZero() {
+        Histogram histogram = new Histogram();
+        histogram.record(0);
+        histogram.record(0);
+        histogram.record(1);
+        Assert.assertEquals(0, histogram.percentile(0.5));
+        Assert.assertEquals(1, histogram.percentile(1.0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegative() {
+        new Histogram().record(-1);
+    }
+}
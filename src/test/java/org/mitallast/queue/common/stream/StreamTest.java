@@ -5,6 +5,7 @@ import com.typesafe.config.ConfigFactory;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mitallast.queue.common.BaseTest;
@@ -41,6 +42,29 @@ public class StreamTest extends BaseTest {
         TestStreamable streamable2 = input.readStreamable();
     }
 
+    @Test
+    public void testLazyStreamable() throws Exception {
+        output = streamService.output(buffer);
+        output.writeLazyStreamable(LazyStreamable.of(new TestStreamable()));
+        input = streamService.input(buffer);
+        LazyStreamable<TestStreamable> lazy = input.readLazyStreamable();
+        Assert.assertFalse(lazy.isDecoded());
+        Assert.assertEquals(TestStreamable.class, lazy.streamableClass());
+        Assert.assertFalse(lazy.isDecoded());
+
+        ByteBuf copy = Unpooled.buffer();
+        try (StreamOutput copyOutput = streamService.output(copy)) {
+            copyOutput.writeLazyStreamable(lazy);
+        }
+        Assert.assertFalse(lazy.isDecoded());
+        buffer.readerIndex(0);
+        Assert.assertEquals(buffer, copy);
+        copy.release();
+
+        Assert.assertNotNull(lazy.get());
+        Assert.assertTrue(lazy.isDecoded());
+    }
+
     public static class TestStreamable implements Streamable {
 
         public TestStreamable() {
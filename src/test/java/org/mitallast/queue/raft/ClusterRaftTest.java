@@ -22,6 +22,8 @@ import org.mitallast.queue.common.stream.StreamableRegistry;
 import org.mitallast.queue.node.InternalNode;
 import org.mitallast.queue.raft.discovery.ClusterDiscovery;
 import org.mitallast.queue.raft.protocol.ClientMessage;
+import org.mitallast.queue.raft.protocol.ClientReadMessage;
+import org.mitallast.queue.raft.protocol.InitLogSnapshot;
 import org.mitallast.queue.raft.protocol.RaftSnapshot;
 import org.mitallast.queue.raft.protocol.RaftSnapshotMetadata;
 import org.mitallast.queue.transport.TransportController;
@@ -34,6 +36,7 @@ import java.util.Optional;
 import java.util.Random;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import static org.mitallast.queue.raft.RaftState.Follower;
 import static org.mitallast.queue.raft.RaftState.Leader;
@@ -71,9 +74,12 @@ public class ClusterRaftTest extends BaseTest {
                 .put("raft.heartbeat", "500ms")
                 .put("raft.bootstrap", bootstrap)
                 .put("raft.snapshot-interval", 10000)
+                .put("raft.snapshot-chunk-size", "1k")
+                .put("raft.follower-read.enabled", true)
                 .put("transport.host", "127.0.0.1")
                 .put("transport.port", port)
                 .put("transport.max_connections", 1)
+                .put("transport.compression", "deflate")
                 .build());
             bootstrap = false;
             builder.add(new InternalNode(config, new TestModule()));
@@ -123,6 +129,167 @@ public class ClusterRaftTest extends BaseTest {
 
         String value2 = client.get(0).set("hello world").get();
         Assert.assertEquals("hello world", value2);
+
+        String value3 = client.get(2).get().get();
+        Assert.assertEquals("hello world", value3);
+    }
+
+    @Test
+    public void testRaftGroups() throws Exception {
+        awaitElection();
+        ImmutableList<String> groups = ImmutableList.of("group1", "group2");
+        for (InternalNode item : node) {
+            RaftGroupManager manager = item.injector().getInstance(RaftGroupManager.class);
+            for (String group : groups) {
+                manager.create(group, new RegisterResourceFSM(item.config()));
+            }
+        }
+        for (String group : groups) {
+            ImmutableList<Raft> groupRaft = ImmutableList.copyOf(node.stream()
+                .map(node -> node.injector().getInstance(RaftGroupManager.class).group(group).get())
+                .iterator());
+            long deadline = System.currentTimeMillis() + 30000;
+            while (groupRaft.stream().noneMatch(raft -> raft.currentState() == Leader)
+                || !groupRaft.stream().allMatch(raft -> raft.replicatedLog().committedIndex() == nodesCount)) {
+                Assert.assertTrue("group " + group + " is not available", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, groupRaft.stream().filter(raft -> raft.currentState() == Leader).count());
+            Assert.assertEquals(nodesCount, groupRaft.get(0).currentMeta().members().size());
+        }
+        // default raft log is not shared with groups
+        Assert.assertTrue(raft.stream().allMatch(raft -> raft.replicatedLog().committedIndex() == nodesCount));
+    }
+
+    @Test
+    public void testRaftGroupRemoveAndCreate() throws Exception {
+        awaitElection();
+        String group = "group1";
+        ArrayList<Raft> groupRaft = new ArrayList<>();
+        for (InternalNode item : node) {
+            groupRaft.add(item.injector().getInstance(RaftGroupManager.class).create(group, new RegisterResourceFSM(item.config())));
+        }
+        awaitGroup(groupRaft, nodesCount);
+        long committed = groupRaft.get(0).replicatedLog().committedIndex();
+
+        for (InternalNode item : node) {
+            item.injector().getInstance(RaftGroupManager.class).remove(group);
+            Assert.assertFalse(item.injector().getInstance(RaftGroupManager.class).group(group).isPresent());
+        }
+        ArrayList<Term> terms = new ArrayList<>();
+        for (Raft raft : groupRaft) {
+            Assert.assertTrue(raft.lifecycle().closed());
+            terms.add(raft.currentMeta().getCurrentTerm());
+        }
+        // removed group does not start election after election deadline
+        Thread.sleep(3000);
+        for (int i = 0; i < nodesCount; i++) {
+            Assert.assertEquals(terms.get(i), groupRaft.get(i).currentMeta().getCurrentTerm());
+        }
+
+        // group is created again from log kept on disk
+        ArrayList<Raft> created = new ArrayList<>();
+        for (InternalNode item : node) {
+            created.add(item.injector().getInstance(RaftGroupManager.class).create(group, new RegisterResourceFSM(item.config())));
+        }
+        awaitGroup(created, nodesCount);
+        Assert.assertTrue(created.get(0).replicatedLog().committedIndex() > committed);
+    }
+
+    @Test
+    public void testRaftGroupInstallSnapshot() throws Exception {
+        awaitElection();
+        String group = "group1";
+        // group is created on bootstrap node and one follower, log is compacted before third node joins
+        ArrayList<Raft> groupRaft = new ArrayList<>();
+        for (int i = 0; i < nodesCount - 1; i++) {
+            InternalNode item = node.get(i);
+            groupRaft.add(item.injector().getInstance(RaftGroupManager.class).create(group, new SnapshotResourceFSM(item.config())));
+        }
+        awaitGroup(groupRaft, nodesCount - 1);
+        Raft leader = groupRaft.stream().filter(raft -> raft.currentState() == Leader).findFirst().get();
+        leader.apply(InitLogSnapshot.INSTANCE);
+        long deadline = System.currentTimeMillis() + 30000;
+        while (!leader.replicatedLog().hasSnapshot()) {
+            Assert.assertTrue("snapshot is not created", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        InternalNode last = node.get(nodesCount - 1);
+        Raft joined = last.injector().getInstance(RaftGroupManager.class).create(group, new SnapshotResourceFSM(last.config()));
+        groupRaft.add(joined);
+        awaitGroup(groupRaft, nodesCount);
+        Assert.assertTrue(joined.replicatedLog().hasSnapshot());
+        Assert.assertEquals(leader.replicatedLog().snapshot().getMeta(), joined.replicatedLog().snapshot().getMeta());
+    }
+
+    @Test
+    public void testInstallSnapshotOverTransport() throws Exception {
+        awaitElection();
+        int leader = leaderIndex();
+        int follower = (leader + 1) % nodesCount;
+        // follower is restarted with empty disk after log is compacted, snapshot is sent in many chunks
+        InternalNode stopped = node.get(follower);
+        stopped.stop();
+        stopped.close();
+
+        // snapshot of value is 16 times larger than snapshot chunk size
+        char[] chars = new char[16 * 1024];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        String value = new String(chars);
+        Assert.assertEquals(value, client.get(leader).set(value).get(10, TimeUnit.SECONDS));
+        raft.get(leader).apply(InitLogSnapshot.INSTANCE);
+        long deadline = System.currentTimeMillis() + 30000;
+        while (!raft.get(leader).replicatedLog().hasSnapshot()) {
+            Assert.assertTrue("snapshot is not created", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        restartWithEmptyDisk(follower, stopped);
+        Raft restarted = raft.get(follower);
+        while (!restarted.replicatedLog().hasSnapshot()
+            || restarted.replicatedLog().committedIndex() < raft.get(leader).replicatedLog().committedIndex()) {
+            Assert.assertTrue("snapshot is not installed", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(raft.get(leader).replicatedLog().snapshot().getMeta(), restarted.replicatedLog().snapshot().getMeta());
+        Assert.assertEquals(value, client.get(follower).get().get(10, TimeUnit.SECONDS));
+    }
+
+    private void restartWithEmptyDisk(int index, InternalNode stopped) throws Exception {
+        Config config = ConfigFactory.parseMap(ImmutableMap.<String, Object>builder()
+            .put("node.path", testFolder.newFolder().getAbsolutePath())
+            .build())
+            .withFallback(stopped.config());
+        InternalNode restarted = new InternalNode(config, new TestModule());
+        restarted.start();
+        ArrayList<InternalNode> nodes = new ArrayList<>(node);
+        nodes.set(index, restarted);
+        node = ImmutableList.copyOf(nodes);
+        raft = ImmutableList.copyOf(node.stream().map(node -> node.injector().getInstance(Raft.class)).iterator());
+        client = ImmutableList.copyOf(node.stream().map(node -> node.injector().getInstance(RegisterClient.class)).iterator());
+        byteClient = ImmutableList.copyOf(node.stream().map(node -> node.injector().getInstance(RegisterByteClient.class)).iterator());
+    }
+
+    private int leaderIndex() {
+        for (int i = 0; i < nodesCount; i++) {
+            if (raft.get(i).currentState() == Leader) {
+                return i;
+            }
+        }
+        throw new AssertionError("leader not found");
+    }
+
+    private void awaitGroup(ArrayList<Raft> groupRaft, int members) throws Exception {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (groupRaft.stream().noneMatch(raft -> raft.currentState() == Leader)
+            || !groupRaft.stream().allMatch(raft -> raft.currentMeta().members().size() == members)
+            || groupRaft.stream().map(raft -> raft.replicatedLog().committedIndex()).distinct().count() > 1) {
+            Assert.assertTrue("group is not available", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
     }
 
     @Test
@@ -150,6 +317,7 @@ public class ClusterRaftTest extends BaseTest {
         }
         final long end = System.currentTimeMillis();
         printQps("raft command rpc", total, start, end);
+        logger.info("leader flush: {}", raft.get(leader).replicatedLog().flushStatistics());
     }
 
     @Test
@@ -183,6 +351,7 @@ public class ClusterRaftTest extends BaseTest {
 
         final long end = System.currentTimeMillis();
         printQps("raft command rpc", total, start, end);
+        logger.info("leader flush: {}", raft.get(leader).replicatedLog().flushStatistics());
     }
 
     @Test
@@ -226,6 +395,7 @@ public class ClusterRaftTest extends BaseTest {
         logger.info("data size   : {}MB", totalBytes.divide(BigInteger.valueOf(1024 * 1024)));
         logger.info("total time  : {}ms", end - start);
         logger.info("throughput  : {}MB/s", bytesPerSec.divide(BigInteger.valueOf(1024 * 1024)));
+        logger.info("leader flush: {}", raft.get(leader).replicatedLog().flushStatistics());
     }
 
     private void awaitElection() throws Exception {
@@ -251,8 +421,8 @@ public class ClusterRaftTest extends BaseTest {
         protected void configure() {
             bind(RegisterClient.class).asEagerSingleton();
             bind(RegisterByteClient.class).asEagerSingleton();
-            bind(RegisterResourceFSM.class).asEagerSingleton();
-            bind(ResourceFSM.class).to(RegisterResourceFSM.class);
+            bind(SnapshotResourceFSM.class).asEagerSingleton();
+            bind(ResourceFSM.class).to(SnapshotResourceFSM.class);
 
             Multibinder<StreamableRegistry> streamableBinder = Multibinder.newSetBinder(binder(), StreamableRegistry.class);
             streamableBinder.addBinding().toInstance(StreamableRegistry.of(RegisterSet.class, RegisterSet::new, 900000));
@@ -302,6 +472,33 @@ public class ClusterRaftTest extends BaseTest {
         }
     }
 
+    public static class SnapshotResourceFSM extends RegisterResourceFSM {
+
+        @Inject
+        public SnapshotResourceFSM(Config config) {
+            super(config);
+        }
+
+        @Override
+        public Streamable apply(Streamable message) {
+            if (message instanceof RegisterValue) {
+                // installed snapshot
+                super.apply(new RegisterSet(0, ((RegisterValue) message).value));
+                return null;
+            }
+            return super.apply(message);
+        }
+
+        @Override
+        public Optional<RaftSnapshot> prepareSnapshot(RaftSnapshotMetadata snapshotMeta) {
+            return Optional.of(new RaftSnapshot(snapshotMeta, get()));
+        }
+
+        private RegisterValue get() {
+            return (RegisterValue) super.apply(new RegisterGet(0));
+        }
+    }
+
     public static class RegisterSet implements Streamable {
         private final long requestId;
         private final String value;
@@ -479,7 +676,7 @@ public class ClusterRaftTest extends BaseTest {
             long request = counter.incrementAndGet();
             CompletableFuture<String> future = new CompletableFuture<>();
             requests.put(request, future);
-            raft.apply(new ClientMessage(clusterDiscovery.self(), new RegisterSet(request, value)));
+            apply(new ClientMessage(clusterDiscovery.self(), new RegisterSet(request, value)));
             return future;
         }
 
@@ -487,10 +684,17 @@ public class ClusterRaftTest extends BaseTest {
             long request = counter.incrementAndGet();
             CompletableFuture<String> future = new CompletableFuture<>();
             requests.put(request, future);
-            raft.apply(new ClientMessage(clusterDiscovery.self(), new RegisterGet(request)));
+            apply(new ClientReadMessage(clusterDiscovery.self(), new RegisterGet(request)));
             return future;
         }
 
+        private void apply(Streamable message) {
+            // event queue is full, wait until raft catch up
+            while (!raft.apply(message)) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+            }
+        }
+
         private void receive(RegisterValue event) {
             logger.debug("client received: {}", event);
             requests.get(event.requestId).complete(event.value);
@@ -518,7 +722,7 @@ public class ClusterRaftTest extends BaseTest {
             long request = counter.incrementAndGet();
             CompletableFuture<RegisterByteOK> future = new CompletableFuture<>();
             setRequests.put(request, future);
-            raft.apply(new ClientMessage(clusterDiscovery.self(), new RegisterByteSet(request, value)));
+            apply(new ClientMessage(clusterDiscovery.self(), new RegisterByteSet(request, value)));
             return future;
         }
 
@@ -526,10 +730,17 @@ public class ClusterRaftTest extends BaseTest {
             long request = counter.incrementAndGet();
             CompletableFuture<ByteBuf> future = new CompletableFuture<>();
             getRequests.put(request, future);
-            raft.apply(new ClientMessage(clusterDiscovery.self(), new RegisterByteGet(request)));
+            apply(new ClientReadMessage(clusterDiscovery.self(), new RegisterByteGet(request)));
             return future;
         }
 
+        private void apply(Streamable message) {
+            // event queue is full, wait until raft catch up
+            while (!raft.apply(message)) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+            }
+        }
+
         private void receiveOk(RegisterByteOK event) {
             logger.debug("client received: {}", event);
             setRequests.get(event.requestId).complete(event);
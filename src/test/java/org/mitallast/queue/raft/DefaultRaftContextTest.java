@@ -0,0 +1,127 @@
+package org.mitallast.queue.raft;
+
+import com.google.common.collect.ImmutableMap;
+import com.typesafe.config.ConfigFactory;
+import io.netty.util.Timeout;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class DefaultRaftContextTest extends BaseTest {
+
+    private DefaultRaftContext context;
+
+    private DefaultRaftContext context(int queueSize) {
+        context = new DefaultRaftContext(ConfigFactory.parseMap(ImmutableMap.of(
+            "raft.event-queue-size", queueSize,
+            "raft.apply-queue-size", queueSize,
+            "raft.timer.tick-duration", "10ms",
+            "raft.timer.ticks-per-wheel", 512
+        )));
+        return context;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    @Test
+    public void testRejectIfQueueIsFull() throws Exception {
+        context(4);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(context.execute(() -> {
+            }));
+        }
+        Assert.assertFalse(context.execute(() -> {
+        }));
+
+        CountDownLatch latch = new CountDownLatch(1);
+        context.start();
+        while (!context.execute(latch::countDown)) {
+            Thread.yield();
+        }
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testExecuteInSingleThread() throws Exception {
+        context(1024).start();
+        AtomicReference<Thread> loop = new AtomicReference<>();
+        AtomicLong counter = new AtomicLong();
+        CountDownLatch latch = new CountDownLatch(total());
+        executeConcurrent(() -> {
+            for (int i = 0; i < max(); i++) {
+                Runnable task = () -> {
+                    loop.compareAndSet(null, Thread.currentThread());
+                    Assert.assertSame(loop.get(), Thread.currentThread());
+                    // not atomic increment, lost updates if tasks run concurrently
+                    counter.set(counter.get() + 1);
+                    latch.countDown();
+                };
+                while (!context.execute(task)) {
+                    Thread.yield();
+                }
+            }
+        });
+        Assert.assertTrue(latch.await(60, TimeUnit.SECONDS));
+        Assert.assertEquals(total(), counter.get());
+    }
+
+    @Test
+    public void testExecuteFSMBlockWhileQueueIsFull() throws Exception {
+        context(4);
+        AtomicLong counter = new AtomicLong();
+        for (int i = 0; i < 4; i++) {
+            context.executeFSM(counter::incrementAndGet);
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            context.executeFSM(counter::incrementAndGet);
+            latch.countDown();
+        });
+        producer.start();
+        Assert.assertFalse(latch.await(100, TimeUnit.MILLISECONDS));
+
+        context.start();
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        producer.join();
+        CountDownLatch applied = new CountDownLatch(1);
+        context.executeFSM(applied::countDown);
+        Assert.assertTrue(applied.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(5, counter.get());
+    }
+
+    @Test
+    public void testSchedule() throws Exception {
+        context(4).start();
+        CountDownLatch latch = new CountDownLatch(1);
+        context.schedule(latch::countDown, 10, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testScheduleAtFixedRateUntilCancelled() throws Exception {
+        context(4).start();
+        AtomicLong counter = new AtomicLong();
+        CountDownLatch latch = new CountDownLatch(3);
+        Timeout timeout = context.scheduleAtFixedRate(() -> {
+            counter.incrementAndGet();
+            latch.countDown();
+        }, 10, 10, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        timeout.cancel();
+        Assert.assertTrue(timeout.isCancelled());
+        long runs = counter.get();
+        Thread.sleep(100);
+        Assert.assertEquals(runs, counter.get());
+    }
+}
@@ -0,0 +1,57 @@
+package org.mitallast.queue.raft;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+import org.mitallast.queue.raft.cluster.ClusterConfiguration;
+import org.mitallast.queue.raft.cluster.StableClusterConfiguration;
+import org.mitallast.queue.transport.DiscoveryNode;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Leader commit path: follower acknowledge and quorum index computation, allocation is measured
+ * by thread allocated bytes counter.
+ */
+public class LogIndexMapBenchmark extends BaseTest {
+    private final int total = 10000000;
+    private final DiscoveryNode node1 = new DiscoveryNode("localhost", 8801);
+    private final DiscoveryNode node2 = new DiscoveryNode("localhost", 8802);
+    private final DiscoveryNode node3 = new DiscoveryNode("localhost", 8803);
+    private final DiscoveryNode node4 = new DiscoveryNode("localhost", 8804);
+    private final DiscoveryNode node5 = new DiscoveryNode("localhost", 8805);
+    private final ClusterConfiguration config = new StableClusterConfiguration(node1, node2, node3, node4, node5);
+
+    @Test
+    public void testCommit() throws Exception {
+        LogIndexMap matchIndex = new LogIndexMap(0);
+        // warm up
+        commit(matchIndex, 0, total);
+
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedStart = threadMXBean.getThreadAllocatedBytes(threadId);
+        long start = System.currentTimeMillis();
+        long committed = commit(matchIndex, total, total);
+        long end = System.currentTimeMillis();
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedStart;
+
+        printQps("commit", total, start, end);
+        logger.info("allocated {} bytes, {} bytes per commit", allocated, allocated / total);
+        Assert.assertEquals(total * 2 - 2, committed);
+        // whole run, not per commit: allows only constant noise of allocated bytes counter
+        Assert.assertTrue("allocated " + allocated + " bytes", allocated < 4096);
+    }
+
+    private long commit(LogIndexMap matchIndex, long from, int count) {
+        long committed = 0;
+        for (long index = from; index < from + count; index++) {
+            matchIndex.put(node1, index);
+            matchIndex.putIfGreater(node2, index);
+            matchIndex.putIfGreater(node3, index - 1);
+            matchIndex.putIfGreater(node4, index - 2);
+            committed = matchIndex.consensusForIndex(config);
+        }
+        return committed;
+    }
+}
@@ -0,0 +1,93 @@
+package org.mitallast.queue.raft;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mitallast.queue.raft.cluster.ClusterConfiguration;
+import org.mitallast.queue.raft.cluster.JointConsensusClusterConfiguration;
+import org.mitallast.queue.raft.cluster.StableClusterConfiguration;
+import org.mitallast.queue.transport.DiscoveryNode;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class LogIndexMapTest {
+    private final DiscoveryNode node1 = new DiscoveryNode("localhost", 8801);
+    private final DiscoveryNode node2 = new DiscoveryNode("localhost", 8802);
+    private final DiscoveryNode node3 = new DiscoveryNode("localhost", 8803);
+    private final DiscoveryNode node4 = new DiscoveryNode("localhost", 8804);
+    private final DiscoveryNode node5 = new DiscoveryNode("localhost", 8805);
+
+    @Test
+    public void testDefaultIndex() {
+        LogIndexMap map = new LogIndexMap(5);
+        Assert.assertEquals(5, map.indexFor(node1));
+        Assert.assertEquals(5, map.consensusForIndex(new StableClusterConfiguration(node1, node2, node3)));
+    }
+
+    @Test
+    public void testPutIfGreater() {
+        LogIndexMap map = new LogIndexMap(5);
+        // absent member is set even if less than default
+        Assert.assertEquals(3, map.putIfGreater(node1, 3));
+        Assert.assertEquals(3, map.putIfGreater(node1, 2));
+        Assert.assertEquals(4, map.putIfGreater(node1, 4));
+        Assert.assertEquals(3, map.decrementFor(node1));
+    }
+
+    @Test
+    public void testConsensusOfThree() {
+        LogIndexMap map = new LogIndexMap(0);
+        ClusterConfiguration config = new StableClusterConfiguration(node1, node2, node3);
+        map.put(node1, 10);
+        Assert.assertEquals(0, map.consensusForIndex(config));
+        map.put(node2, 7);
+        Assert.assertEquals(7, map.consensusForIndex(config));
+        map.put(node3, 9);
+        Assert.assertEquals(9, map.consensusForIndex(config));
+    }
+
+    @Test
+    public void testConsensusOfFour() {
+        LogIndexMap map = new LogIndexMap(0);
+        map.put(node1, 10);
+        map.put(node2, 9);
+        map.put(node3, 8);
+        map.put(node4, 7);
+        Assert.assertEquals(8, map.consensusForIndex(new StableClusterConfiguration(node1, node2, node3, node4)));
+    }
+
+    @Test
+    public void testConsensusOfJointConfiguration() {
+        LogIndexMap map = new LogIndexMap(0);
+        map.put(node1, 10);
+        map.put(node2, 10);
+        map.put(node3, 2);
+        map.put(node4, 5);
+        map.put(node5, 1);
+        ClusterConfiguration config = new JointConsensusClusterConfiguration(
+            ImmutableSet.of(node1, node2, node3),
+            ImmutableSet.of(node3, node4, node5)
+        );
+        Assert.assertEquals(2, map.consensusForIndex(config));
+        // members are reassigned on configuration change
+        Assert.assertEquals(10, map.consensusForIndex(new StableClusterConfiguration(node1, node2, node3)));
+    }
+
+    @Test
+    public void testSelect() {
+        Random random = new Random(42);
+        for (int size = 1; size <= 16; size++) {
+            for (int run = 0; run < 100; run++) {
+                long[] values = new long[size];
+                for (int i = 0; i < size; i++) {
+                    values[i] = random.nextInt(8);
+                }
+                long[] sorted = values.clone();
+                Arrays.sort(sorted);
+                int k = random.nextInt(size);
+                Assert.assertEquals(sorted[k], LogIndexMap.select(values.clone(), size, k));
+            }
+        }
+    }
+}
@@ -10,6 +10,11 @@ import com.google.inject.Injector;
 import com.google.inject.multibindings.Multibinder;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -37,11 +42,14 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Optional;
 import java.util.concurrent.*;
 
 import static org.mitallast.queue.raft.RaftState.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -110,6 +118,8 @@ public class RaftTest extends BaseTest {
         override("node.path", testFolder.getRoot().getAbsolutePath());
         override("raft.enabled", "true");
         override("raft.bootstrap", "true");
+        override("raft.log.durability", "every-entry");
+        override("raft.client-batch.delay", "0");
         injector = Guice.createInjector(
             new ComponentModule(config),
             new StreamModule(),
@@ -206,6 +216,40 @@ public class RaftTest extends BaseTest {
         expectCandidate();
     }
 
+    @Test
+    public void testFollowerResetElectionDeadlineWithoutReschedule() throws Exception {
+        appendClusterConf();
+        start();
+        raft.apply(appendEntries(node2, 1, 1, 1, 1));
+        Assert.assertEquals(1, context.timers.size());
+        for (int i = 0; i < 10; i++) {
+            raft.apply(appendEntries(node2, 1, 1, 1, 1));
+        }
+        expectFollower();
+        Assert.assertEquals(1, context.timers.size());
+    }
+
+    @Test
+    public void testFollowerCheckElectionDeadlineBeforeTimeout() throws Exception {
+        appendClusterConf();
+        start();
+        raft.apply(appendEntries(node2, 1, 1, 1, 1));
+        context.runTimers();
+        expectFollower();
+        Assert.assertEquals(1, context.timers.size());
+    }
+
+    @Test
+    public void testFollowerCheckElectionDeadlineAfterTimeout() throws Exception {
+        override("raft.election-deadline", "2ms");
+        appendClusterConf();
+        start();
+        raft.apply(appendEntries(node2, 1, 1, 1, 1));
+        Thread.sleep(10);
+        context.runTimers();
+        expectCandidate();
+    }
+
     @Test
     public void testFollowerDoesNotBeginElectionWithoutNodes() throws Exception {
         override("raft.bootstrap", "false");
@@ -294,6 +338,110 @@ public class RaftTest extends BaseTest {
         Assert.assertTrue(raft.replicatedLog().contains(logEntry));
     }
 
+    @Test
+    public void testFollowerAppendFirstEntryIfLogEmpty() throws Exception {
+        override("raft.bootstrap", "false");
+        start();
+        raft.apply(appendEntries(node2, 1, 0, 0, 0, stable(1, 1, node1, node2, node3)));
+        Assert.assertEquals(ImmutableList.of(stable(1, 1, node1, node2, node3)), raft.replicatedLog().entries());
+        verify(transportChannel2).message(new AppendSuccessful(node1, new Term(1), 1));
+    }
+
+    @Test
+    public void testFollowerAppendFirstEntriesIfLogEmpty() throws Exception {
+        override("raft.bootstrap", "false");
+        start();
+        raft.apply(appendEntries(node2, 1, 0, 0, 0, stable(1, 1, node1, node2, node3), noop(1, 2, node2)));
+        Assert.assertEquals(
+            ImmutableList.of(stable(1, 1, node1, node2, node3), noop(1, 2, node2)),
+            raft.replicatedLog().entries()
+        );
+        verify(transportChannel2).message(new AppendSuccessful(node1, new Term(1), 2));
+    }
+
+    @Test
+    public void testFollowerIgnoreEntriesAlreadyInLog() throws Exception {
+        appendClusterConf();
+        start();
+        raft.apply(appendEntries(node2, 1, 1, 1, 0, noop(1, 2, node2), noop(1, 3, node2)));
+        // batch received again after following batch
+        raft.apply(appendEntries(node2, 1, 1, 1, 0, noop(1, 2, node2)));
+        Assert.assertEquals(
+            ImmutableList.of(stable(1, 1, node1, node2, node3), noop(1, 2, node2), noop(1, 3, node2)),
+            raft.replicatedLog().entries()
+        );
+        verify(transportChannel2).message(new AppendSuccessful(node1, new Term(1), 3));
+        verify(transportChannel2).message(new AppendSuccessful(node1, new Term(1), 2));
+    }
+
+    @Test
+    public void testFollowerAcknowledgeAppendAfterFlush() throws Exception {
+        override("raft.log.durability", "batch");
+        appendClusterConf();
+        start();
+        raft.apply(appendEntries(node2, 1, 1, 1, 0, noop(1, 2, node2)));
+        verify(transportChannel2, never()).message(new AppendSuccessful(node1, new Term(1), 2));
+
+        context.runIO();
+        verify(transportChannel2).message(new AppendSuccessful(node1, new Term(1), 2));
+    }
+
+    @Test
+    public void testFollowerAcknowledgeFlushedIndexWhileAppendInFlight() throws Exception {
+        override("raft.log.durability", "batch");
+        appendClusterConf();
+        start();
+        raft.apply(appendEntries(node2, 1, 1, 1, 0, noop(1, 2, node2)));
+        // appended while flush of index 2 is in flight
+        raft.apply(appendEntries(node2, 1, 1, 2, 0, noop(1, 3, node2)));
+        verify(transportChannel2, never()).message(new AppendSuccessful(node1, new Term(1), 2));
+
+        // min of awaiting and flushed index, next flush is started
+        context.runIO();
+        verify(transportChannel2).message(new AppendSuccessful(node1, new Term(1), 2));
+        verify(transportChannel2, never()).message(new AppendSuccessful(node1, new Term(1), 3));
+        Assert.assertEquals(1, context.ioTasks.size());
+
+        context.runIO();
+        verify(transportChannel2).message(new AppendSuccessful(node1, new Term(1), 3));
+        Assert.assertEquals(3, raft.replicatedLog().flushedIndex());
+    }
+
+    @Test
+    public void testFollowerAcknowledgeAppendWithoutFlush() throws Exception {
+        override("raft.log.durability", "none");
+        appendClusterConf();
+        start();
+        raft.apply(appendEntries(node2, 1, 1, 1, 0, noop(1, 2, node2)));
+        verify(transportChannel2).message(new AppendSuccessful(node1, new Term(1), 2));
+        Assert.assertTrue(context.ioTasks.isEmpty());
+    }
+
+    @Test
+    public void testFollowerTruncateConflictingEntries() throws Exception {
+        appendClusterConf();
+        start();
+        raft.apply(appendEntries(node2, 1, 1, 1, 0, noop(1, 2, node2), noop(1, 3, node2)));
+        raft.apply(appendEntries(node2, 2, 1, 1, 0, noop(1, 2, node2), noop(2, 3, node3)));
+        Assert.assertEquals(
+            ImmutableList.of(stable(1, 1, node1, node2, node3), noop(1, 2, node2), noop(2, 3, node3)),
+            raft.replicatedLog().entries()
+        );
+    }
+
+    @Test
+    public void testFollowerRejectAppendEntriesWithConflictHint() throws Exception {
+        appendClusterConf();
+        log = log.append(noop(1, 2, node1)).append(noop(2, 3, node1)).append(noop(2, 4, node1));
+        start();
+        // conflicting entry, first index of its term
+        raft.apply(appendEntries(node2, 3, 3, 4, 0, noop(3, 5, node2)));
+        verify(transportChannel2).message(new AppendRejected(node1, new Term(3), 4, new Term(2), 3));
+        // missing entry, next index of log
+        raft.apply(appendEntries(node2, 3, 3, 7, 0, noop(3, 8, node2)));
+        verify(transportChannel2).message(new AppendRejected(node1, new Term(3), 7, new Term(0), 5));
+    }
+
     @Test
     public void testFollowerBecameLeaderOnSelfElection() throws Exception {
         appendClusterSelf();
@@ -314,7 +462,7 @@ public class RaftTest extends BaseTest {
     public void testFollowerIgnoreAppendRejected() throws Exception {
         appendClusterSelf();
         start();
-        raft.apply(new AppendRejected(node2, new Term(1)));
+        raft.apply(new AppendRejected(node2, new Term(1), 0));
         expectFollower();
     }
 
@@ -363,6 +511,43 @@ public class RaftTest extends BaseTest {
         expectTerm(1);
     }
 
+    @Test
+    public void testFollowerInstallSnapshotByChunks() throws Exception {
+        appendClusterConf();
+        start();
+        RaftSnapshotMetadata meta = new RaftSnapshotMetadata(new Term(2), 3, new StableClusterConfiguration(node1, node2, node3));
+        ByteBuf bytes = snapshotBytes(new RaftSnapshot(meta, TestFSMMessage.INSTANCE));
+        int half = bytes.readableBytes() / 2;
+
+        raft.apply(new InstallSnapshot(node2, new Term(2), meta, 0, bytes.slice(0, half), false));
+        verify(transportChannel2).message(new InstallSnapshotProgress(node1, new Term(2), 3, half));
+        Assert.assertFalse(raft.replicatedLog().hasSnapshot());
+
+        raft.apply(new InstallSnapshot(node2, new Term(2), meta, half, bytes.slice(half, bytes.readableBytes() - half), true));
+        verify(resourceFSM).apply(TestFSMMessage.INSTANCE);
+        Assert.assertEquals(3, raft.lastApplied());
+        Assert.assertTrue(raft.replicatedLog().hasSnapshot());
+        Assert.assertEquals(meta, raft.replicatedLog().snapshot().getMeta());
+        expectFollower();
+        expectTerm(2);
+    }
+
+    @Test
+    public void testFollowerRequestSnapshotChunkFromReceivedOffset() throws Exception {
+        appendClusterConf();
+        start();
+        RaftSnapshotMetadata meta = new RaftSnapshotMetadata(new Term(2), 3, new StableClusterConfiguration(node1, node2, node3));
+        ByteBuf bytes = snapshotBytes(new RaftSnapshot(meta, TestFSMMessage.INSTANCE));
+
+        raft.apply(new InstallSnapshot(node2, new Term(2), meta, 0, bytes.slice(0, 4), false));
+        verify(transportChannel2).message(new InstallSnapshotProgress(node1, new Term(2), 3, 4));
+
+        // chunk lost after reconnect
+        raft.apply(new InstallSnapshot(node2, new Term(2), meta, 8, bytes.slice(8, 4), false));
+        verify(transportChannel2, times(2)).message(new InstallSnapshotProgress(node1, new Term(2), 3, 4));
+        Assert.assertFalse(raft.replicatedLog().hasSnapshot());
+    }
+
     // candidate
 
     @Test
@@ -658,7 +843,7 @@ public class RaftTest extends BaseTest {
     @Test
     public void testLeaderStepDownOnAppendRejectedIfTermIsNewer() throws Exception {
         becameLeader();
-        raft.apply(new AppendRejected(node2, new Term(3)));
+        raft.apply(new AppendRejected(node2, new Term(3), 0));
         expectFollower();
         expectTerm(3);
     }
@@ -666,7 +851,7 @@ public class RaftTest extends BaseTest {
     @Test
     public void testLeaderIgnoreAppendRejectedIfTermIsOld() throws Exception {
         becameLeader();
-        raft.apply(new AppendRejected(node2, new Term(0)));
+        raft.apply(new AppendRejected(node2, new Term(0), 0));
         expectLeader();
         expectTerm(2);
     }
@@ -685,18 +870,321 @@ public class RaftTest extends BaseTest {
         verify(transportChannel2).message(appendEntries(node1, 2, 1, 3, 0, noop(2, 4, node1)));
         verify(transportChannel3).message(appendEntries(node1, 2, 1, 3, 0, noop(2, 4, node1)));
 
-        raft.apply(new AppendRejected(node2, new Term(2)));
-        raft.apply(new AppendRejected(node3, new Term(2)));
+        raft.apply(new AppendRejected(node2, new Term(2), 3));
+        raft.apply(new AppendRejected(node3, new Term(2), 3));
+
+        // batch spans term boundary
+        verify(transportChannel2).message(appendEntries(node1, 2, 1, 2, 0, noop(1, 3, node1), noop(2, 4, node1)));
+        verify(transportChannel3).message(appendEntries(node1, 2, 1, 2, 0, noop(1, 3, node1), noop(2, 4, node1)));
+
+        raft.apply(new AppendRejected(node2, new Term(2), 2));
+        raft.apply(new AppendRejected(node3, new Term(2), 2));
+
+        verify(transportChannel2).message(appendEntries(node1, 2, 1, 1, 0, noop(1, 2, node1), noop(1, 3, node1), noop(2, 4, node1)));
+        verify(transportChannel3).message(appendEntries(node1, 2, 1, 1, 0, noop(1, 2, node1), noop(1, 3, node1), noop(2, 4, node1)));
+    }
+
+    @Test
+    public void testLeaderRewindByConflictHint() throws Exception {
+        appendClusterConf();
+        log = log.append(noop(1, 2, node1)).append(noop(1, 3, node1));
+        start();
+        electionTimeout();
+        voteCandidate(node2, 2);
+        voteCandidate(node3, 2);
+        verify(transportChannel2).message(appendEntries(node1, 2, 1, 3, 0, noop(2, 4, node1)));
+
+        // follower has only first entry, rewind without probing each index
+        raft.apply(new AppendRejected(node2, new Term(2), 3, new Term(0), 2));
+        verify(transportChannel2, never()).message(appendEntries(node1, 2, 1, 2, 0, noop(1, 3, node1), noop(2, 4, node1)));
+        verify(transportChannel2).message(appendEntries(node1, 2, 1, 1, 0, noop(1, 2, node1), noop(1, 3, node1), noop(2, 4, node1)));
+    }
+
+    @Test
+    public void testLeaderPipelineEntriesWithoutWaitingResponse() throws Exception {
+        becameLeader();
+        raft.apply(new AppendSuccessful(node2, new Term(2), 2));
+
+        for (int i = 0; i < 5; i++) {
+            raft.apply(new ClientMessage(node2, Noop.INSTANCE));
+        }
+        verify(transportChannel2).message(appendEntries(node1, 2, 2, 2, 2, noop(2, 3, node2)));
+        verify(transportChannel2).message(appendEntries(node1, 2, 2, 3, 2, noop(2, 4, node2)));
+        verify(transportChannel2).message(appendEntries(node1, 2, 2, 4, 2, noop(2, 5, node2)));
+        verify(transportChannel2).message(appendEntries(node1, 2, 2, 5, 2, noop(2, 6, node2)));
+        // max inflight batches
+        verify(transportChannel2, never()).message(appendEntries(node1, 2, 2, 6, 2, noop(2, 7, node2)));
+
+        raft.apply(new AppendSuccessful(node2, new Term(2), 4));
+        verify(transportChannel2).message(appendEntries(node1, 2, 2, 6, 2, noop(2, 7, node2)));
+    }
+
+    @Test
+    public void testLeaderRewindOnAppendRejected() throws Exception {
+        becameLeader();
+        raft.apply(new AppendSuccessful(node2, new Term(2), 2));
+
+        for (int i = 0; i < 3; i++) {
+            raft.apply(new ClientMessage(node2, Noop.INSTANCE));
+        }
+        raft.apply(new AppendRejected(node2, new Term(2), 3));
+        verify(transportChannel2).message(appendEntries(node1, 2, 2, 2, 2, noop(2, 3, node2), noop(2, 4, node2), noop(2, 5, node2)));
+
+        // rejected batch sent before rewind
+        raft.apply(new AppendRejected(node2, new Term(2), 4));
+        // follower is probed by single batch
+        raft.apply(new ClientMessage(node2, Noop.INSTANCE));
+        verify(transportChannel2, never()).message(appendEntries(node1, 2, 2, 3, 2, noop(2, 4, node2), noop(2, 5, node2)));
+        verify(transportChannel2, never()).message(appendEntries(node1, 2, 2, 5, 2, noop(2, 6, node2)));
+
+        raft.apply(new AppendSuccessful(node2, new Term(2), 5));
+        verify(transportChannel2).message(appendEntries(node1, 2, 2, 5, 2, noop(2, 6, node2)));
+    }
+
+    @Test
+    public void testLeaderAppendClientMessagesInBatch() throws Exception {
+        override("raft.client-batch.delay", "1ms");
+        becameLeader();
+        raft.apply(new AppendSuccessful(node2, new Term(2), 2));
+        raft.apply(new AppendSuccessful(node3, new Term(2), 2));
+
+        // all entries are committed, append without delay
+        raft.apply(new ClientMessage(node2, Noop.INSTANCE));
+        verify(transportChannel2).message(appendEntries(node1, 2, 2, 2, 2, noop(2, 3, node2)));
+
+        raft.apply(new ClientMessage(node2, Noop.INSTANCE));
+        raft.apply(new ClientMessage(node2, Noop.INSTANCE));
+        Assert.assertEquals(3, raft.replicatedLog().lastIndex());
+
+        raft.apply(AppendClientBatch.INSTANCE);
+        Assert.assertEquals(5, raft.replicatedLog().lastIndex());
+        verify(transportChannel2).message(appendEntries(node1, 2, 2, 3, 2, noop(2, 4, node2), noop(2, 5, node2)));
+        Assert.assertEquals(2, raft.clientBatchEntries().count());
+        Assert.assertEquals(2, raft.clientBatchEntries().max());
+    }
+
+    @Test
+    public void testLeaderReplicateWhileLocalFlushInFlight() throws Exception {
+        override("raft.log.durability", "batch");
+        becameLeader();
+        context.runIO();
+        appendSuccessful(node2, 2, 2);
+        appendSuccessful(node3, 2, 2);
+        Assert.assertEquals(2, raft.replicatedLog().committedIndex());
+
+        raft.apply(new ClientMessage(node2, Noop.INSTANCE));
+        // sent before local write is durable
+        verify(transportChannel2).message(appendEntries(node1, 2, 2, 2, 2, noop(2, 3, node2)));
+        Assert.assertEquals(2, raft.replicatedLog().flushedIndex());
+
+        // leader is not counted in majority until flush completes
+        appendSuccessful(node2, 2, 3);
+        Assert.assertEquals(2, raft.replicatedLog().committedIndex());
+
+        context.runIO();
+        Assert.assertEquals(3, raft.replicatedLog().flushedIndex());
+        Assert.assertEquals(3, raft.replicatedLog().committedIndex());
+    }
+
+    @Test
+    public void testLeaderReadIndexConfirmedByQuorum() throws Exception {
+        becameLeader();
+        appendSuccessful(node2, 2, 2);
+        appendSuccessful(node3, 2, 2);
+
+        raft.apply(new ClientReadMessage(node2, TestFSMMessage.INSTANCE));
+        raft.apply(new ClientReadMessage(node2, TestFSMMessage.INSTANCE));
+        verify(transportChannel2).message(new ReadHeartbeat(node1, new Term(2), 1));
+        verify(transportChannel3).message(new ReadHeartbeat(node1, new Term(2), 1));
+        verify(resourceFSM, never()).apply(TestFSMMessage.INSTANCE);
+
+        // second read is confirmed by next round
+        raft.apply(new ReadHeartbeatResponse(node2, new Term(2), 1));
+        verify(resourceFSM).apply(TestFSMMessage.INSTANCE);
+        verify(transportChannel2).message(new ReadHeartbeat(node1, new Term(2), 2));
+
+        raft.apply(new ReadHeartbeatResponse(node3, new Term(2), 2));
+        verify(resourceFSM, times(2)).apply(TestFSMMessage.INSTANCE);
+        verify(transportChannel2, times(2)).message(TestFSMMessage.INSTANCE);
+        // reads are not appended to log
+        Assert.assertEquals(2, raft.replicatedLog().lastIndex());
+    }
+
+    @Test
+    public void testLeaderShareReadIndexRound() throws Exception {
+        becameLeader();
+        // reads wait for entry committed in current term
+        raft.apply(new ClientReadMessage(node2, TestFSMMessage.INSTANCE));
+        raft.apply(new ClientReadMessage(node2, TestFSMMessage.INSTANCE));
+        raft.apply(new ClientReadMessage(node2, TestFSMMessage.INSTANCE));
+        verify(transportChannel2, never()).message(new ReadHeartbeat(node1, new Term(2), 1));
+
+        appendSuccessful(node2, 2, 2);
+        appendSuccessful(node3, 2, 2);
+        verify(transportChannel2).message(new ReadHeartbeat(node1, new Term(2), 1));
+        raft.apply(new ReadHeartbeatResponse(node3, new Term(2), 1));
+        verify(resourceFSM, times(3)).apply(TestFSMMessage.INSTANCE);
+        Assert.assertEquals(1, raft.readRoundEntries().count());
+        Assert.assertEquals(3, raft.readRoundEntries().max());
+    }
+
+    @Test
+    public void testLeaderStepDownOnReadHeartbeatResponseWithNewerTerm() throws Exception {
+        becameLeader();
+        appendSuccessful(node2, 2, 2);
+        appendSuccessful(node3, 2, 2);
+        raft.apply(new ClientReadMessage(node2, TestFSMMessage.INSTANCE));
+        raft.apply(new ReadHeartbeatResponse(node2, new Term(3), 1));
+        expectFollower();
+        expectTerm(3);
+        verify(resourceFSM, never()).apply(TestFSMMessage.INSTANCE);
+        Assert.assertEquals(ImmutableList.of(new ClientReadMessage(node2, TestFSMMessage.INSTANCE)), raft.currentStashed());
+    }
+
+    @Test
+    public void testLeaderServeReadWithLease() throws Exception {
+        override("raft.read-lease.enabled", "true");
+        becameLeader();
+        appendSuccessful(node2, 2, 2);
+        appendSuccessful(node3, 2, 2);
+        Assert.assertFalse(raft.hasReadLease());
+
+        // heartbeat renews lease without reads
+        raft.apply(SendHeartbeat.INSTANCE);
+        verify(transportChannel2).message(new ReadHeartbeat(node1, new Term(2), 1));
+        raft.apply(new ReadHeartbeatResponse(node2, new Term(2), 1));
+        Assert.assertTrue(raft.hasReadLease());
+
+        raft.apply(new ClientReadMessage(node2, TestFSMMessage.INSTANCE));
+        verify(resourceFSM).apply(TestFSMMessage.INSTANCE);
+        verify(transportChannel2).message(TestFSMMessage.INSTANCE);
+        verify(transportChannel2, never()).message(new ReadHeartbeat(node1, new Term(2), 2));
+        Assert.assertEquals(0, raft.readRoundEntries().count());
+    }
+
+    @Test
+    public void testLeaderConfirmReadIfLeaseExpired() throws Exception {
+        override("raft.read-lease.enabled", "true");
+        override("raft.election-deadline", "10ms");
+        override("raft.read-lease.clock-drift", "9ms");
+        becameLeader();
+        appendSuccessful(node2, 2, 2);
+        appendSuccessful(node3, 2, 2);
+        raft.apply(SendHeartbeat.INSTANCE);
+        raft.apply(new ReadHeartbeatResponse(node2, new Term(2), 1));
+        Thread.sleep(5);
+        Assert.assertFalse(raft.hasReadLease());
+
+        raft.apply(new ClientReadMessage(node2, TestFSMMessage.INSTANCE));
+        verify(transportChannel2).message(new ReadHeartbeat(node1, new Term(2), 2));
+        verify(resourceFSM, never()).apply(TestFSMMessage.INSTANCE);
+    }
+
+    @Test
+    public void testFollowerRejectVoteWhileLeaderMayHoldLease() throws Exception {
+        override("raft.read-lease.enabled", "true");
+        appendClusterConf();
+        start();
+        raft.apply(appendEntries(node2, 1, 1, 1, 1));
+        raft.apply(new RequestVote(new Term(2), node3, new Term(1), 1));
+        verify(transportChannel3).message(new DeclineCandidate(node1, new Term(1)));
+        expectFollower();
+        expectTerm(1);
+    }
+
+    @Test
+    public void testFollowerResponseReadHeartbeat() throws Exception {
+        appendClusterConf();
+        start();
+        raft.apply(new ReadHeartbeat(node2, new Term(2), 5));
+        verify(transportChannel2).message(new ReadHeartbeatResponse(node1, new Term(2), 5));
+        expectTerm(2);
+
+        // stale leader receives current term
+        raft.apply(new ReadHeartbeat(node3, new Term(1), 6));
+        verify(transportChannel3).message(new ReadHeartbeatResponse(node1, new Term(2), 6));
+    }
+
+    @Test
+    public void testFollowerServeReadAfterReadIndexCommitted() throws Exception {
+        override("raft.follower-read.enabled", "true");
+        appendClusterConf();
+        start();
+        raft.apply(appendEntries(node2, 1, 1, 1, 1));
+        raft.apply(new ClientReadMessage(node3, TestFSMMessage.INSTANCE));
+        raft.apply(new ClientReadMessage(node3, TestFSMMessage.INSTANCE));
+        verify(transportChannel2).message(new ReadIndexRequest(node1, 1));
+        verify(transportChannel2, never()).message(new ReadIndexRequest(node1, 2));
+
+        // read waits for leader commit index
+        raft.apply(new ReadIndexResponse(node2, new Term(1), 1, 2));
+        verify(resourceFSM, never()).apply(TestFSMMessage.INSTANCE);
+        verify(transportChannel2).message(new ReadIndexRequest(node1, 2));
+
+        raft.apply(appendEntries(node2, 1, 1, 1, 2, noop(1, 2, node2)));
+        verify(resourceFSM).apply(TestFSMMessage.INSTANCE);
+        verify(transportChannel3).message(TestFSMMessage.INSTANCE);
+    }
+
+    @Test
+    public void testFollowerResendReadIndexRequestIfResponseLost() throws Exception {
+        override("raft.follower-read.enabled", "true");
+        override("raft.heartbeat", "0ms");
+        appendClusterConf();
+        start();
+        raft.apply(appendEntries(node2, 1, 1, 1, 1));
+        raft.apply(new ClientReadMessage(node3, TestFSMMessage.INSTANCE));
+        verify(transportChannel2).message(new ReadIndexRequest(node1, 1));
+
+        // response to first request is lost, next leader heartbeat re-sends request
+        raft.apply(appendEntries(node2, 1, 1, 1, 1));
+        verify(transportChannel2).message(new ReadIndexRequest(node1, 2));
+
+        // late response to lost request is ignored
+        raft.apply(new ReadIndexResponse(node2, new Term(1), 1, 1));
+        verify(resourceFSM, never()).apply(TestFSMMessage.INSTANCE);
+
+        raft.apply(new ReadIndexResponse(node2, new Term(1), 2, 1));
+        verify(resourceFSM).apply(TestFSMMessage.INSTANCE);
+        verify(transportChannel3).message(TestFSMMessage.INSTANCE);
+    }
+
+    @Test
+    public void testFollowerServeReadWithinMaxStaleness() throws Exception {
+        override("raft.follower-read.enabled", "true");
+        override("raft.follower-read.max-staleness", "1m");
+        appendClusterConf();
+        start();
+        raft.apply(appendEntries(node2, 1, 1, 1, 1));
+        raft.apply(new ClientReadMessage(node3, TestFSMMessage.INSTANCE));
+        verify(resourceFSM).apply(TestFSMMessage.INSTANCE);
+        verify(transportChannel2, never()).message(new ReadIndexRequest(node1, 1));
+    }
+
+    @Test
+    public void testLeaderResponseReadIndexConfirmedByQuorum() throws Exception {
+        becameLeader();
+        appendSuccessful(node2, 2, 2);
+        appendSuccessful(node3, 2, 2);
+        raft.apply(new ReadIndexRequest(node3, 7));
+        verify(transportChannel2).message(new ReadHeartbeat(node1, new Term(2), 1));
+        verify(transportChannel3, never()).message(new ReadIndexResponse(node1, new Term(2), 7, 2));
 
-        // entry 4 does not included because different term
-        verify(transportChannel2).message(appendEntries(node1, 2, 1, 2, 0, noop(1, 3, node1)));
-        verify(transportChannel3).message(appendEntries(node1, 2, 1, 2, 0, noop(1, 3, node1)));
+        raft.apply(new ReadHeartbeatResponse(node2, new Term(2), 1));
+        verify(transportChannel3).message(new ReadIndexResponse(node1, new Term(2), 7, 2));
+        verify(resourceFSM, never()).apply(TestFSMMessage.INSTANCE);
+    }
 
-        raft.apply(new AppendRejected(node2, new Term(2)));
-        raft.apply(new AppendRejected(node3, new Term(2)));
+    @Test
+    public void testLeaderStashClientBatchOnStepDown() throws Exception {
+        override("raft.client-batch.delay", "1ms");
+        becameLeader();
+        raft.apply(new ClientMessage(node2, Noop.INSTANCE));
+        Assert.assertEquals(2, raft.replicatedLog().lastIndex());
 
-        verify(transportChannel2).message(appendEntries(node1, 2, 1, 1, 0, noop(1, 2, node1), noop(1, 3, node1)));
-        verify(transportChannel3).message(appendEntries(node1, 2, 1, 1, 0, noop(1, 2, node1), noop(1, 3, node1)));
+        raft.apply(appendEntries(node2, 3, 0, 0, 0));
+        expectFollower();
+        Assert.assertEquals(ImmutableList.of(new ClientMessage(node2, Noop.INSTANCE)), raft.currentStashed());
     }
 
     @Test
@@ -733,7 +1221,7 @@ public class RaftTest extends BaseTest {
         becameLeader();
         StableClusterConfiguration conf = new StableClusterConfiguration(node1, node2, node3);
         RaftSnapshotMetadata metadata = new RaftSnapshotMetadata(new Term(1), 1, conf);
-        raft.apply(new InstallSnapshot(node2, new Term(1), new RaftSnapshot(metadata, Noop.INSTANCE)));
+        raft.apply(new InstallSnapshot(node2, new Term(1), metadata, 0, Unpooled.EMPTY_BUFFER, false));
         expectLeader();
         expectTerm(2);
         Assert.assertEquals(0, raft.replicatedLog().committedIndex());
@@ -744,7 +1232,7 @@ public class RaftTest extends BaseTest {
         becameLeader();
         StableClusterConfiguration conf = new StableClusterConfiguration(node1, node2, node3);
         RaftSnapshotMetadata metadata = new RaftSnapshotMetadata(new Term(1), 1, conf);
-        raft.apply(new InstallSnapshot(node2, new Term(2), new RaftSnapshot(metadata, Noop.INSTANCE)));
+        raft.apply(new InstallSnapshot(node2, new Term(2), metadata, 0, Unpooled.EMPTY_BUFFER, false));
         expectLeader();
         expectTerm(2);
         Assert.assertEquals(0, raft.replicatedLog().committedIndex());
@@ -755,7 +1243,7 @@ public class RaftTest extends BaseTest {
         becameLeader();
         StableClusterConfiguration conf = new StableClusterConfiguration(node1, node2, node3);
         RaftSnapshotMetadata metadata = new RaftSnapshotMetadata(new Term(1), 1, conf);
-        raft.apply(new InstallSnapshot(node2, new Term(3), new RaftSnapshot(metadata, Noop.INSTANCE)));
+        raft.apply(new InstallSnapshot(node2, new Term(3), metadata, 0, Unpooled.EMPTY_BUFFER, false));
         expectFollower();
         expectTerm(3);
         Assert.assertEquals(0, raft.replicatedLog().committedIndex());
@@ -817,7 +1305,8 @@ public class RaftTest extends BaseTest {
         voteCandidate(node2, 2);
         voteCandidate(node3, 2);
         raft.apply(new InstallSnapshotRejected(node2, new Term(2)));
-        verify(transportChannel2).message(appendEntries(node1, 2, 1, 3, 0, noop(2, 4, node1)));
+        // next index is advanced on send, so back out index resends last batch
+        verify(transportChannel2, times(2)).message(appendEntries(node1, 2, 1, 3, 0, noop(2, 4, node1)));
     }
 
     @Test
@@ -864,6 +1353,29 @@ public class RaftTest extends BaseTest {
         verify(transportController).dispatch(new MessageTransportFrame(Version.CURRENT, TestFSMMessage.INSTANCE));
     }
 
+    @Test
+    public void testLeaderSendResponseFromApplier() throws Exception {
+        becameLeader();
+        raft.apply(new AppendSuccessful(node2, new Term(2), 2));
+        raft.apply(new AppendSuccessful(node3, new Term(2), 2));
+        Assert.assertEquals(2, raft.lastApplied());
+
+        context.deferFSM = true;
+        raft.apply(new ClientMessage(node2, TestFSMMessage.INSTANCE));
+        raft.apply(new AppendSuccessful(node2, new Term(2), 3));
+        raft.apply(new AppendSuccessful(node3, new Term(2), 3));
+
+        // committed, but not applied yet
+        Assert.assertEquals(3, raft.replicatedLog().committedIndex());
+        Assert.assertEquals(2, raft.lastApplied());
+        verify(resourceFSM, never()).apply(TestFSMMessage.INSTANCE);
+        verify(transportChannel2, never()).message(TestFSMMessage.INSTANCE);
+
+        context.runFSM();
+        Assert.assertEquals(3, raft.lastApplied());
+        verify(transportChannel2).message(TestFSMMessage.INSTANCE);
+    }
+
     @Test
     public void testLeaderRejectVoteIfTermIsEqual() throws Exception {
         becameLeader();
@@ -884,14 +1396,25 @@ public class RaftTest extends BaseTest {
     }
 
     @Test
-    public void testLeaderCreateSnapshot() throws Exception {
+    public void testLeaderNotCommitEntryOfPreviousTermByCount() throws Exception {
         becameLeader();
-        // commit index 1
         appendSuccessful(node2, 2, 1);
         appendSuccessful(node3, 2, 1);
+        Assert.assertEquals(0, raft.replicatedLog().committedIndex());
+
+        appendSuccessful(node2, 2, 2);
+        Assert.assertEquals(2, raft.replicatedLog().committedIndex());
+    }
+
+    @Test
+    public void testLeaderCreateSnapshot() throws Exception {
+        becameLeader();
+        // commit index 2, entry of previous term is committed with entry of current term
+        appendSuccessful(node2, 2, 2);
+        appendSuccessful(node3, 2, 2);
 
         // snapshot
-        RaftSnapshotMetadata meta = new RaftSnapshotMetadata(new Term(1), 1, new StableClusterConfiguration(node1, node2, node3));
+        RaftSnapshotMetadata meta = new RaftSnapshotMetadata(new Term(2), 2, new StableClusterConfiguration(node1, node2, node3));
         when(resourceFSM.prepareSnapshot(meta)).thenReturn(Optional.of(new RaftSnapshot(meta, null)));
         raft.apply(InitLogSnapshot.INSTANCE);
         ReplicatedLog log = raft.replicatedLog();
@@ -900,6 +1423,24 @@ public class RaftTest extends BaseTest {
         Assert.assertEquals(meta, log.snapshot().getMeta());
     }
 
+    @Test
+    public void testLeaderWriteSnapshotInApplierThread() throws Exception {
+        becameLeader();
+        appendSuccessful(node2, 2, 2);
+        appendSuccessful(node3, 2, 2);
+
+        RaftSnapshotMetadata meta = new RaftSnapshotMetadata(new Term(2), 2, new StableClusterConfiguration(node1, node2, node3));
+        when(resourceFSM.prepareSnapshot(meta)).thenReturn(Optional.of(new RaftSnapshot(meta, null)));
+        context.deferFSM = true;
+        raft.apply(InitLogSnapshot.INSTANCE);
+        verify(resourceFSM, never()).prepareSnapshot(meta);
+        Assert.assertNull(persistentService.snapshotFile());
+
+        context.runFSM();
+        Assert.assertTrue(raft.replicatedLog().hasSnapshot());
+        Assert.assertEquals(meta, persistentService.snapshotFile().meta());
+    }
+
     // joint consensus
 
     @Test
@@ -954,6 +1495,14 @@ public class RaftTest extends BaseTest {
         raft.apply(new VoteCandidate(node, new Term(term)));
     }
 
+    private ByteBuf snapshotBytes(RaftSnapshot snapshot) throws IOException {
+        ByteBuf buffer = Unpooled.buffer();
+        try (StreamOutput output = injector.getInstance(StreamService.class).output(buffer)) {
+            output.writeStreamable(snapshot);
+        }
+        return buffer;
+    }
+
     private void expectTerm(long term) {
         Assert.assertEquals(new Term(term), raft.currentMeta().getCurrentTerm());
     }
@@ -995,53 +1544,86 @@ public class RaftTest extends BaseTest {
     // test dependencies
 
     private class TestRaftContext implements RaftContext {
+        private final ArrayList<Runnable> fsmTasks = new ArrayList<>();
+        private final ArrayList<Runnable> ioTasks = new ArrayList<>();
+        private final ArrayList<Runnable> timers = new ArrayList<>();
+        private boolean deferFSM = false;
 
         @Override
-        public ScheduledFuture schedule(Runnable task, long timeout, TimeUnit timeUnit) {
-            return new TestScheduledFuture();
+        public boolean execute(Runnable task) {
+            task.run();
+            return true;
         }
 
         @Override
-        public ScheduledFuture scheduleAtFixedRate(Runnable task, long delay, long timeout, TimeUnit timeUnit) {
-            return new TestScheduledFuture();
+        public void executeFSM(Runnable task) {
+            if (deferFSM) {
+                fsmTasks.add(task);
+            } else {
+                task.run();
+            }
         }
-    }
 
-    private class TestScheduledFuture<V> implements ScheduledFuture<V> {
+        private void runFSM() {
+            fsmTasks.forEach(Runnable::run);
+            fsmTasks.clear();
+        }
 
         @Override
-        public long getDelay(TimeUnit timeUnit) {
-            return 0;
+        public boolean executeIO(Runnable task) {
+            ioTasks.add(task);
+            return true;
+        }
+
+        private void runIO() {
+            ArrayList<Runnable> tasks = new ArrayList<>(ioTasks);
+            ioTasks.clear();
+            tasks.forEach(Runnable::run);
         }
 
         @Override
-        public int compareTo(Delayed delayed) {
-            return 0;
+        public Timeout schedule(Runnable task, long timeout, TimeUnit timeUnit) {
+            timers.add(task);
+            return new TestTimeout();
+        }
+
+        private void runTimers() {
+            ArrayList<Runnable> tasks = new ArrayList<>(timers);
+            timers.clear();
+            tasks.forEach(Runnable::run);
         }
 
         @Override
-        public boolean cancel(boolean b) {
-            return false;
+        public Timeout scheduleAtFixedRate(Runnable task, long delay, long timeout, TimeUnit timeUnit) {
+            return new TestTimeout();
         }
+    }
+
+    private class TestTimeout implements Timeout {
 
         @Override
-        public boolean isCancelled() {
-            return false;
+        public Timer timer() {
+            return null;
         }
 
         @Override
-        public boolean isDone() {
+        public TimerTask task() {
+            return null;
+        }
+
+        @Override
+        public boolean isExpired() {
             return false;
         }
 
         @Override
-        public V get() throws InterruptedException, ExecutionException {
-            return null;
+        public boolean isCancelled() {
+            return false;
         }
 
         @Override
-        public V get(long l, TimeUnit timeUnit) throws InterruptedException, ExecutionException, TimeoutException {
-            return null;
+        public boolean cancel() {
+            return false;
         }
     }
 
@@ -1066,8 +1648,13 @@ public class RaftTest extends BaseTest {
             streamableBinder.addBinding().toInstance(StreamableRegistry.of(AppendEntries.class, AppendEntries::new, 200));
             streamableBinder.addBinding().toInstance(StreamableRegistry.of(AppendRejected.class, AppendRejected::new, 201));
             streamableBinder.addBinding().toInstance(StreamableRegistry.of(AppendSuccessful.class, AppendSuccessful::new, 202));
+            streamableBinder.addBinding().toInstance(StreamableRegistry.of(ReadHeartbeat.class, ReadHeartbeat::new, 203));
+            streamableBinder.addBinding().toInstance(StreamableRegistry.of(ReadHeartbeatResponse.class, ReadHeartbeatResponse::new, 204));
+            streamableBinder.addBinding().toInstance(StreamableRegistry.of(ReadIndexRequest.class, ReadIndexRequest::new, 205));
+            streamableBinder.addBinding().toInstance(StreamableRegistry.of(ReadIndexResponse.class, ReadIndexResponse::new, 206));
 
             streamableBinder.addBinding().toInstance(StreamableRegistry.of(ClientMessage.class, ClientMessage::new, 210));
+            streamableBinder.addBinding().toInstance(StreamableRegistry.of(ClientReadMessage.class, ClientReadMessage::new, 211));
 
             streamableBinder.addBinding().toInstance(StreamableRegistry.of(ElectionTimeout.class, ElectionTimeout::read, 220));
             streamableBinder.addBinding().toInstance(StreamableRegistry.of(BeginElection.class, BeginElection::read, 221));
@@ -1087,6 +1674,7 @@ public class RaftTest extends BaseTest {
             streamableBinder.addBinding().toInstance(StreamableRegistry.of(InstallSnapshot.class, InstallSnapshot::new, 261));
             streamableBinder.addBinding().toInstance(StreamableRegistry.of(InstallSnapshotRejected.class, InstallSnapshotRejected::new, 262));
             streamableBinder.addBinding().toInstance(StreamableRegistry.of(InstallSnapshotSuccessful.class, InstallSnapshotSuccessful::new, 263));
+            streamableBinder.addBinding().toInstance(StreamableRegistry.of(InstallSnapshotProgress.class, InstallSnapshotProgress::new, 264));
 
             streamableBinder.addBinding().toInstance(StreamableRegistry.of(JointConsensusClusterConfiguration.class, JointConsensusClusterConfiguration::new, 270));
             streamableBinder.addBinding().toInstance(StreamableRegistry.of(StableClusterConfiguration.class, StableClusterConfiguration::new, 271));
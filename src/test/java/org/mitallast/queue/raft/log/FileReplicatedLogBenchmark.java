@@ -0,0 +1,155 @@
+package org.mitallast.queue.raft.log;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mitallast.queue.common.BaseTest;
+import org.mitallast.queue.common.file.FileService;
+import org.mitallast.queue.common.stream.*;
+import org.mitallast.queue.raft.DefaultRaftContext;
+import org.mitallast.queue.raft.Raft;
+import org.mitallast.queue.raft.ResourceFSM;
+import org.mitallast.queue.raft.Term;
+import org.mitallast.queue.raft.cluster.StableClusterConfiguration;
+import org.mitallast.queue.raft.discovery.ClusterDiscovery;
+import org.mitallast.queue.raft.persistent.FilePersistentService;
+import org.mitallast.queue.raft.persistent.ReplicatedLog;
+import org.mitallast.queue.raft.protocol.LogEntry;
+import org.mitallast.queue.transport.DiscoveryNode;
+import org.mitallast.queue.transport.TransportController;
+import org.mitallast.queue.transport.TransportService;
+
+import java.io.IOException;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Startup time of log recovery and of node restart, log size is set by {@code -Dbenchmark.log.size},
+ * 2g by default. Node restart is measured until raft is initialized: log is opened and cluster
+ * configuration is found. Configuration is first entry of log, so whole log is scanned for it.
+ */
+public class FileReplicatedLogBenchmark extends BaseTest {
+
+    private final DiscoveryNode node = new DiscoveryNode("127.0.0.1", 8900);
+    private final Term term = new Term(1);
+    private final long logSize = ConfigFactory.parseString("size = " + System.getProperty("benchmark.log.size", "2g")).getBytes("size");
+    private final int entrySize = 1024;
+
+    private Config config(int parallelism) {
+        return ConfigFactory.parseMap(ImmutableMap.<String, Object>builder()
+            .put("transport.host", "127.0.0.1")
+            .put("node.name", "test")
+            .put("node.path", testFolder.getRoot().getAbsolutePath())
+            .put("raft.enabled", true)
+            .put("raft.log.segment-size", "64m")
+            .put("raft.log.index-interval", "4k")
+            .put("raft.log.cache-size", "16m")
+            .put("raft.log.recovery-parallelism", parallelism)
+            .put("raft.log.preallocate", true)
+            .build())
+            .withFallback(ConfigFactory.defaultReference())
+            .resolve();
+    }
+
+    private StreamService streamService(Config config) {
+        return new InternalStreamService(config, ImmutableSet.of(
+            StreamableRegistry.of(Payload.class, Payload::new, 10000),
+            StreamableRegistry.of(LogEntry.class, LogEntry::new, 10001),
+            StreamableRegistry.of(StableClusterConfiguration.class, StableClusterConfiguration::new, 10002)
+        ));
+    }
+
+    private ReplicatedLog log(int parallelism) throws Exception {
+        Config config = config(parallelism);
+        return new FilePersistentService(config, new FileService(config), streamService(config)).openLog();
+    }
+
+    /**
+     * @return duration of raft start until initialized, in milliseconds
+     */
+    private long restart(int parallelism) throws Exception {
+        Config config = config(parallelism);
+        ClusterDiscovery clusterDiscovery = mock(ClusterDiscovery.class);
+        when(clusterDiscovery.self()).thenReturn(node);
+        DefaultRaftContext context = new DefaultRaftContext(config);
+        context.start();
+
+        long start = System.currentTimeMillis();
+        FilePersistentService persistentService = new FilePersistentService(config, new FileService(config), streamService(config));
+        Raft raft = new Raft(
+            config,
+            mock(TransportService.class),
+            mock(TransportController.class),
+            clusterDiscovery,
+            persistentService,
+            mock(ResourceFSM.class),
+            context
+        );
+        raft.start();
+        while (!raft.currentMeta().members().contains(node)) {
+            Thread.sleep(1);
+        }
+        long end = System.currentTimeMillis();
+
+        Assert.assertEquals(logSize / entrySize, raft.replicatedLog().lastIndex());
+        raft.stop();
+        raft.close();
+        context.stop();
+        context.close();
+        return end - start;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        long entries = logSize / entrySize;
+        ReplicatedLog log = log(1);
+        Payload payload = new Payload(new byte[entrySize]);
+        long start = System.currentTimeMillis();
+        log.append(new LogEntry(new StableClusterConfiguration(node), term, 1, node));
+        for (long index = 2; index <= entries; index++) {
+            log.append(new LogEntry(payload, term, index, node));
+        }
+        log.flush();
+        log.close();
+        long end = System.currentTimeMillis();
+        printQps("generate", entries, start, end);
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        for (int parallelism : new int[]{1, 2, 4, 8}) {
+            long start = System.currentTimeMillis();
+            ReplicatedLog log = log(parallelism);
+            long end = System.currentTimeMillis();
+            logger.info("recovery parallelism={}: {}ms", parallelism, end - start);
+            Assert.assertEquals(logSize / entrySize, log.lastIndex());
+            log.close();
+
+            logger.info("restart parallelism={}: {}ms", parallelism, restart(parallelism));
+        }
+    }
+
+    public static class Payload implements Streamable {
+        private final byte[] data;
+
+        public Payload(byte[] data) {
+            this.data = data;
+        }
+
+        public Payload(StreamInput stream) throws IOException {
+            data = new byte[stream.readInt()];
+            stream.readFully(data);
+        }
+
+        @Override
+        public void writeTo(StreamOutput stream) throws IOException {
+            stream.writeInt(data.length);
+            stream.write(data);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.mitallast.queue.raft.log;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -11,16 +12,20 @@ import org.mitallast.queue.common.BaseTest;
 import org.mitallast.queue.common.file.FileService;
 import org.mitallast.queue.common.stream.*;
 import org.mitallast.queue.raft.Term;
+import org.mitallast.queue.raft.cluster.ClusterConfiguration;
 import org.mitallast.queue.raft.cluster.JointConsensusClusterConfiguration;
 import org.mitallast.queue.raft.cluster.StableClusterConfiguration;
 import org.mitallast.queue.raft.persistent.FilePersistentService;
 import org.mitallast.queue.raft.persistent.ReplicatedLog;
+import org.mitallast.queue.raft.persistent.Segment;
 import org.mitallast.queue.raft.protocol.LogEntry;
 import org.mitallast.queue.raft.protocol.RaftSnapshot;
 import org.mitallast.queue.raft.protocol.RaftSnapshotMetadata;
 import org.mitallast.queue.transport.DiscoveryNode;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
@@ -35,6 +40,9 @@ public class FileReplicatedLogTest extends BaseTest {
     private final DiscoveryNode node1 = new DiscoveryNode("127.0.0.1", 8900);
     private final StableClusterConfiguration clusterConf = new StableClusterConfiguration();
     private Term term = term1;
+    private String cacheSize = "1m";
+    private String segmentSize = "1m";
+    private String indexInterval = "4k";
     private final LogEntry entry1 = new LogEntry(new AppendWord("word"), term, 1, node1);
     private final LogEntry entry2 = new LogEntry(new AppendWord("word"), term, 2, node1);
     private final LogEntry entry3 = new LogEntry(new AppendWord("word"), term, 3, node1);
@@ -55,6 +63,11 @@ public class FileReplicatedLogTest extends BaseTest {
             .put("node.name", "test")
             .put("node.path", testFolder.getRoot().getAbsolutePath())
             .put("raft.enabled", true)
+            .put("raft.log.segment-size", segmentSize)
+            .put("raft.log.index-interval", indexInterval)
+            .put("raft.log.cache-size", cacheSize)
+            .put("raft.log.recovery-parallelism", 2)
+            .put("raft.log.preallocate", true)
             .build());
     }
 
@@ -80,6 +93,7 @@ public class FileReplicatedLogTest extends BaseTest {
     public void testReopen() throws Exception {
         ReplicatedLog origin = log().append(entry1).append(entry2).append(entry3).commit(2).compactWith(snapshot2, node1).commit(3);
         logger.info("origin:   {}", origin);
+        origin.close();
 
         ReplicatedLog reopened = log();
         logger.info("reopened: {}", reopened);
@@ -95,9 +109,238 @@ public class FileReplicatedLogTest extends BaseTest {
 
         List<String> files = fileService().resources("raft").map(Path::toString).collect(Collectors.toList());
         logger.info("files: {}", files);
-        Assert.assertEquals(2, files.size());
+        Assert.assertEquals(5, files.size());
         Assert.assertTrue(files.contains("state.bin"));
-        Assert.assertTrue(files.contains("2.log"));
+        Assert.assertTrue(files.contains("snapshot.meta"));
+        Assert.assertTrue(files.contains("snapshot.2.1.bin"));
+        // segment is kept, as entry 3 is not covered by snapshot
+        Assert.assertTrue(files.contains("1.log"));
+        Assert.assertTrue(files.contains("1.index"));
+    }
+
+    @Test
+    public void testSnapshotEntryKeepsOnlyMetadata() throws Exception {
+        RaftSnapshot snapshot = new RaftSnapshot(new RaftSnapshotMetadata(term, 2, clusterConf), new AppendWord("state"));
+        ReplicatedLog log = log().append(entry1).append(entry2).append(entry3).commit(2).compactWith(snapshot, node1);
+        Assert.assertEquals(ImmutableList.of(snapshotEntry2, entry3), log.entries());
+        Assert.assertEquals(ImmutableList.of(snapshotEntry2), log.entriesBatchFrom(2, 1));
+        Assert.assertEquals(snapshot, log.snapshot());
+    }
+
+    @Test
+    public void testRollSegment() throws Exception {
+        segmentSize = "4k";
+        ImmutableList<LogEntry> entries = entries(200);
+        ReplicatedLog log = log().append(entries);
+        Assert.assertEquals(entries, log.entries());
+        log.close();
+
+        List<String> files = fileService().resources("raft").map(Path::toString).collect(Collectors.toList());
+        logger.info("files: {}", files);
+        List<String> segments = files.stream().filter(file -> file.endsWith(".log")).collect(Collectors.toList());
+        Assert.assertTrue(segments.size() > 1);
+        for (String segment : segments) {
+            Assert.assertTrue(files.contains(segment.replace(".log", ".index")));
+        }
+
+        ReplicatedLog reopened = log();
+        Assert.assertEquals(200, reopened.lastIndex());
+        Assert.assertEquals(entries, reopened.entries());
+    }
+
+    @Test
+    public void testLookupAcrossIndexInterval() throws Exception {
+        indexInterval = "256b";
+        ImmutableList<LogEntry> entries = entries(200);
+        log().append(entries).close();
+
+        // reopened log is read from segment, not from cache
+        ReplicatedLog reopened = log();
+        for (int index = 1; index <= 200; index++) {
+            Assert.assertEquals(ImmutableList.of(entries.get(index - 1)), reopened.entriesBatchFrom(index, 1));
+        }
+        Assert.assertEquals(0, reopened.cacheHits());
+        Assert.assertEquals(200, reopened.cacheMisses());
+        reopened.close();
+
+        reopened = log();
+        for (int from = 1; from <= 190; from += 7) {
+            Assert.assertEquals(entries.subList(from - 1, from + 9), reopened.slice(from, from + 9));
+        }
+    }
+
+    @Test
+    public void testTermAtAcrossSegments() throws Exception {
+        segmentSize = "4k";
+        indexInterval = "256b";
+        ImmutableList<LogEntry> entries = entries(200);
+        log().append(entries).close();
+
+        ReplicatedLog reopened = log();
+        for (LogEntry entry : entries) {
+            Assert.assertTrue(reopened.containsEntryAt(entry.getIndex()));
+            Assert.assertEquals(entry.getTerm(), reopened.termAt(entry.getIndex()));
+            Assert.assertTrue(reopened.containsMatchingEntry(entry.getTerm(), entry.getIndex()));
+        }
+        Assert.assertFalse(reopened.containsEntryAt(201));
+        Assert.assertFalse(reopened.containsMatchingEntry(term1, 200));
+    }
+
+    @Test
+    public void testLastEntryOfAcrossSegments() throws Exception {
+        segmentSize = "4k";
+        indexInterval = "256b";
+        LogEntry conf10 = new LogEntry(new StableClusterConfiguration(node1), new Term(1), 10, node1);
+        LogEntry conf120 = new LogEntry(new StableClusterConfiguration(node1), new Term(3), 120, node1);
+        ImmutableList.Builder<LogEntry> builder = ImmutableList.builder();
+        for (LogEntry entry : entries(200)) {
+            builder.add(entry.getIndex() == 10 ? conf10 : entry.getIndex() == 120 ? conf120 : entry);
+        }
+        ReplicatedLog log = log().append(builder.build());
+        Assert.assertEquals(Optional.of(conf120), log.lastEntryOf(StableClusterConfiguration.class));
+        log.close();
+
+        // only found entry is decoded
+        ReplicatedLog reopened = log();
+        Assert.assertEquals(Optional.of(conf120), reopened.lastEntryOf(ClusterConfiguration.class));
+        Assert.assertEquals(1, reopened.cacheMisses());
+        Assert.assertEquals(Optional.empty(), reopened.lastEntryOf(JointConsensusClusterConfiguration.class));
+
+        reopened.append(ImmutableList.of(), 100);
+        Assert.assertEquals(Optional.of(conf10), reopened.lastEntryOf(ClusterConfiguration.class));
+
+        reopened.compactWith(new RaftSnapshot(new RaftSnapshotMetadata(new Term(2), 50, clusterConf), null), node1);
+        Assert.assertEquals(Optional.empty(), reopened.lastEntryOf(ClusterConfiguration.class));
+    }
+
+    /**
+     * @return entries of about 100 bytes starting from index 1, term is changed every 50 entries
+     */
+    private ImmutableList<LogEntry> entries(int count) {
+        ImmutableList.Builder<LogEntry> builder = ImmutableList.builder();
+        for (int index = 1; index <= count; index++) {
+            String word = Strings.repeat("w", 100) + index;
+            builder.add(new LogEntry(new AppendWord(word), new Term(index / 50 + 1), index, node1));
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testCompactRemovesCoveredSegment() throws Exception {
+        ReplicatedLog origin = log().append(entry1).append(entry2).append(entry3).compactWith(snapshot2, node1).compactWith(snapshot3, node1);
+        Assert.assertEquals(ImmutableList.of(snapshotEntry3), origin.entries());
+        origin.append(rewriteEntry4);
+        origin.close();
+
+        List<String> files = fileService().resources("raft").map(Path::toString).collect(Collectors.toList());
+        logger.info("files: {}", files);
+        Assert.assertEquals(5, files.size());
+        Assert.assertTrue(files.contains("snapshot.3.1.bin"));
+        Assert.assertTrue(files.contains("4.log"));
+        Assert.assertTrue(files.contains("4.index"));
+
+        ReplicatedLog reopened = log();
+        Assert.assertEquals(snapshot3, reopened.snapshot());
+        Assert.assertEquals(ImmutableList.of(snapshotEntry3, rewriteEntry4), reopened.entries());
+        Assert.assertEquals(4, reopened.lastIndex());
+    }
+
+    @Test
+    public void testCacheHitOnAppendedEntries() throws Exception {
+        ReplicatedLog log = log().append(entry1).append(entry2).append(entry3);
+        Assert.assertEquals(ImmutableList.of(entry2, entry3), log.entriesBatchFrom(2, 3));
+        Assert.assertEquals(2, log.cacheHits());
+        Assert.assertEquals(0, log.cacheMisses());
+    }
+
+    @Test
+    public void testCacheMissAfterReopen() throws Exception {
+        log().append(entry1).append(entry2).append(entry3).close();
+
+        ReplicatedLog reopened = log();
+        Assert.assertEquals(ImmutableList.of(entry1, entry2, entry3), reopened.entries());
+        Assert.assertEquals(0, reopened.cacheHits());
+        Assert.assertEquals(3, reopened.cacheMisses());
+
+        Assert.assertEquals(ImmutableList.of(entry1, entry2, entry3), reopened.entries());
+        Assert.assertEquals(3, reopened.cacheHits());
+        Assert.assertEquals(3, reopened.cacheMisses());
+    }
+
+    @Test
+    public void testCacheEvictsLeastRecentlyUsed() throws Exception {
+        cacheSize = "100b";
+        ReplicatedLog log = log().append(entry1).append(entry2).append(entry3);
+        Assert.assertEquals(ImmutableList.of(entry1, entry2, entry3), log.entries());
+        Assert.assertTrue(log.cacheMisses() > 0);
+    }
+
+    @Test
+    public void testCacheInvalidatedOnTruncate() throws Exception {
+        ReplicatedLog log = log().append(entry1).append(entry2).append(entry3);
+        log.append(ImmutableList.of(rewriteEntry2, rewriteEntry3), 1);
+        Assert.assertEquals(ImmutableList.of(entry1, rewriteEntry2, rewriteEntry3), log.entries());
+        Assert.assertEquals(3, log.cacheHits());
+    }
+
+    @Test
+    public void testAppendAfterCompaction() throws Exception {
+        ReplicatedLog origin = log().append(entry1).append(entry2).append(entry3).commit(2).compactWith(snapshot2, node1).append(rewriteEntry4);
+        Assert.assertEquals(ImmutableList.of(snapshotEntry2, entry3, rewriteEntry4), origin.entries());
+        origin.close();
+
+        ReplicatedLog reopened = log();
+        Assert.assertEquals(snapshot2, reopened.snapshot());
+        Assert.assertEquals(ImmutableList.of(snapshotEntry2, entry3, rewriteEntry4), reopened.entries());
+        Assert.assertEquals(1, reopened.compactionStatistics().getCount() + origin.compactionStatistics().getCount());
+    }
+
+    @Test
+    public void testReopenTornTail() throws Exception {
+        log().append(entry1).append(entry2).append(entry3);
+
+        // corrupt last byte of last record
+        File file = fileService().resource("raft", "1.log");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long pos = raf.length() - 1;
+            raf.seek(pos);
+            while (raf.read() == 0) {
+                raf.seek(--pos);
+            }
+            raf.seek(pos);
+            raf.write(0xFF);
+        }
+
+        ReplicatedLog reopened = log();
+        Assert.assertEquals(ImmutableList.of(entry1, entry2), reopened.entries());
+
+        reopened.append(entry3);
+        Assert.assertEquals(ImmutableList.of(entry1, entry2, entry3), log().entries());
+    }
+
+    @Test
+    public void testPreallocateSegment() throws Exception {
+        log().append(entry1);
+
+        File file = fileService().resource("raft", "1.log");
+        Assert.assertEquals(1024 * 1024, file.length());
+    }
+
+    @Test
+    public void testReopenIgnoresStaleRecordAfterLostEndMarker() throws Exception {
+        LogEntry term2Entry2 = new LogEntry(new AppendWord("word"), term2, 2, node1);
+        log().append(entry1).append(entry2).append(entry3).append(ImmutableList.of(term2Entry2), 1);
+
+        // restore length of truncated entry 3, overwritten by end marker
+        File file = fileService().resource("raft", "1.log");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            int length = raf.readInt();
+            raf.seek(2 * (Segment.FRAME_SIZE + length));
+            raf.writeInt(length);
+        }
+
+        ReplicatedLog reopened = log();
+        Assert.assertEquals(ImmutableList.of(entry1, term2Entry2), reopened.entries());
     }
 
     @Test
@@ -175,6 +418,26 @@ public class FileReplicatedLogTest extends BaseTest {
         Assert.assertEquals(ImmutableList.of(), log().append(entry1).append(entry2).append(entry3).entriesBatchFrom(4, 3));
     }
 
+    @Test
+    public void testEntriesBatchSpanTerms() throws Exception {
+        LogEntry term2Entry2 = new LogEntry(new AppendWord("word"), term2, 2, node1);
+        LogEntry term3Entry3 = new LogEntry(new AppendWord("word"), term3, 3, node1);
+        ReplicatedLog log = log().append(entry1).append(term2Entry2).append(term3Entry3);
+        Assert.assertEquals(ImmutableList.of(entry1, term2Entry2, term3Entry3), log.entriesBatchFrom(1, 10, Long.MAX_VALUE));
+        Assert.assertEquals(ImmutableList.of(entry1, term2Entry2), log.entriesBatchFrom(1, 2, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testEntriesBatchLimitedBySize() throws Exception {
+        LogEntry large1 = new LogEntry(new AppendWord(Strings.repeat("word ", 1000)), term, 1, node1);
+        LogEntry large2 = new LogEntry(new AppendWord(Strings.repeat("word ", 1000)), term, 2, node1);
+        ReplicatedLog log = log().append(large1).append(large2).append(entry3);
+        Assert.assertEquals(ImmutableList.of(large1), log.entriesBatchFrom(1, 10, 6000));
+        Assert.assertEquals(ImmutableList.of(large2, entry3), log.entriesBatchFrom(2, 10, 6000));
+        // batch contains at least one entry
+        Assert.assertEquals(ImmutableList.of(large1), log.entriesBatchFrom(1, 10, 100));
+    }
+
     @Test
     public void testContainsMatchingEntry0IfEmpty() throws Exception {
         Assert.assertTrue(log().containsMatchingEntry(term0, 0));
@@ -423,6 +686,15 @@ public class FileReplicatedLogTest extends BaseTest {
         Assert.assertEquals(prev.committedIndex(), rewrite.committedIndex());
     }
 
+    @Test
+    public void testAppendWithIndexReopen() throws Exception {
+        log().append(entry1).append(entry2).append(entry3).append(ImmutableList.of(rewriteEntry2), 1);
+
+        ReplicatedLog reopened = log();
+        Assert.assertEquals(ImmutableList.of(entry1, rewriteEntry2), reopened.entries());
+        Assert.assertEquals(2, reopened.lastIndex());
+    }
+
     @Test
     public void testTermAt() throws Exception {
         ReplicatedLog log = log()
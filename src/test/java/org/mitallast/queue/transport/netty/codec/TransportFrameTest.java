@@ -1,5 +1,6 @@
 package org.mitallast.queue.transport.netty.codec;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSet;
 import com.typesafe.config.ConfigFactory;
 import io.netty.buffer.ByteBuf;
@@ -51,6 +52,50 @@ public class TransportFrameTest extends BaseTest {
         Assert.assertEquals(123123, message.value);
     }
 
+    @Test
+    public void testCompressedMessage() throws Exception {
+        StreamService streamService = new InternalStreamService(ConfigFactory.defaultReference(), ImmutableSet.of(StreamableRegistry.of(TestTextStreamable.class, TestTextStreamable::new, 124)));
+        TransportFrameEncoder encoder = new TransportFrameEncoder(streamService, Compression.DEFLATE, 64);
+        TransportFrameDecoder decoder = new TransportFrameDecoder(streamService);
+        TestTextStreamable message = new TestTextStreamable(Strings.repeat("hello world ", 1000));
+
+        ByteBuf raw = Unpooled.buffer();
+        new TransportFrameEncoder(streamService).encode(null, new MessageTransportFrame(Version.CURRENT, message), raw);
+        ByteBuf buffer = Unpooled.buffer();
+        encoder.encode(null, new MessageTransportFrame(Version.CURRENT, message), buffer);
+        Assert.assertTrue(buffer.readableBytes() < raw.readableBytes());
+
+        ArrayList<Object> output = new ArrayList<>();
+        decoder.decode(null, buffer, output);
+        Assert.assertEquals(1, output.size());
+        Assert.assertFalse(buffer.isReadable());
+
+        MessageTransportFrame decoded = (MessageTransportFrame) output.get(0);
+        TestTextStreamable decodedMessage = decoded.message();
+        Assert.assertEquals(message.text, decodedMessage.text);
+    }
+
+    @Test
+    public void testMessageNotCompressedInPreviousVersion() throws Exception {
+        StreamService streamService = new InternalStreamService(ConfigFactory.defaultReference(), ImmutableSet.of(StreamableRegistry.of(TestTextStreamable.class, TestTextStreamable::new, 124)));
+        TransportFrameEncoder encoder = new TransportFrameEncoder(streamService, Compression.DEFLATE, 64);
+        TransportFrameDecoder decoder = new TransportFrameDecoder(streamService);
+        TestTextStreamable message = new TestTextStreamable(Strings.repeat("hello world ", 1000));
+
+        ByteBuf raw = Unpooled.buffer();
+        new TransportFrameEncoder(streamService).encode(null, new MessageTransportFrame(Version.V1_0_0, message), raw);
+        ByteBuf buffer = Unpooled.buffer();
+        encoder.encode(null, new MessageTransportFrame(Version.V1_0_0, message), buffer);
+        Assert.assertEquals(raw, buffer);
+
+        ArrayList<Object> output = new ArrayList<>();
+        decoder.decode(null, buffer, output);
+        MessageTransportFrame decoded = (MessageTransportFrame) output.get(0);
+        Assert.assertEquals(Version.V1_0_0, decoded.version());
+        TestTextStreamable decodedMessage = decoded.message();
+        Assert.assertEquals(message.text, decodedMessage.text);
+    }
+
     @Test
     public void testMessageEncodeBenchmark() throws Exception {
         StreamService streamService = new InternalStreamService(ConfigFactory.defaultReference(), ImmutableSet.of(StreamableRegistry.of(TestStreamable.class, TestStreamable::new, 123)));
@@ -93,6 +138,24 @@ public class TransportFrameTest extends BaseTest {
         printQps("decode", max, start, end);
     }
 
+    public static class TestTextStreamable implements Streamable {
+
+        private final String text;
+
+        public TestTextStreamable(StreamInput streamInput) throws IOException {
+            this.text = streamInput.readText();
+        }
+
+        public TestTextStreamable(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void writeTo(StreamOutput stream) throws IOException {
+            stream.writeText(text);
+        }
+    }
+
     public static class TestStreamable implements Streamable {
 
         private final long value;